@@ -0,0 +1,304 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.configuration.ValueType;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.data.federation.EntityStatementDefinedParams;
+import se.oidc.oidfed.base.data.metadata.policy.EntityTypeMetadataPolicy;
+import se.oidc.oidfed.base.data.metadata.policy.MetadataParameterPolicy;
+import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.process.metadata.MetadataPolicySerializer;
+import se.oidc.oidfed.base.process.metadata.impl.DefaultPolicyOperatorFactory;
+import se.oidc.oidfed.base.process.metadata.impl.StandardMetadataPolicySerializer;
+import se.oidc.oidfed.base.process.metadata.policyoperators.DefaultPolicyOperator;
+import se.oidc.oidfed.base.process.metadata.policyoperators.EssentialPolicyOperator;
+import se.oidc.oidfed.base.process.metadata.policyoperators.SubsetOfPolicyOperator;
+import se.oidc.oidfed.base.process.metadata.policyoperators.SupersetOfPolicyOperator;
+import se.oidc.oidfed.base.security.JWTSigningCredential;
+import se.oidc.oidfed.base.testdata.TestMetadata;
+import se.oidc.oidfed.base.utils.OidcUtils;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmark of {@link DefaultFederationChainValidator#validate(List)}.
+ *
+ * <p>
+ * Each trial generates a fresh set of entity keys and a chain of signed statements from Trust Anchor Entity
+ * Configuration to an OpenID Provider Entity Configuration, in the same way as the unit test data is created. The
+ * benchmark is parameterized over chain length, key type and metadata policy size. Signature verification caching is
+ * turned off so that every invocation verifies all signatures of the chain.
+ * </p>
+ * <p>
+ * The {@code caching} parameter controls caching of merged metadata policies. With {@code uncached}, every invocation
+ * merges all policies. With {@code cached}, the merged policies are cached after the first invocation. The
+ * {@link #validate()} benchmark uses the JWS verifier pool of {@link OidcUtils}, which is warm after the first
+ * invocation. The {@link #validateColdVerifiers()} benchmark clears the pool as part of each invocation, so that every
+ * invocation creates all verifiers. Clearing the pool is done inside the benchmark method rather than in a setup
+ * method per invocation, whose timing overhead would dominate a sub-millisecond benchmark.
+ * </p>
+ * <p>
+ * Run settings are fixed in this class so that results from different releases can be compared. Use the
+ * {@code benchmark} Maven profile to run the benchmarks with GC and allocation profiling.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class ChainValidationBenchmark {
+
+  /** Number of statements in the chain, including the Trust Anchor and leaf Entity Configurations */
+  @Param({ "3", "4", "5", "6", "7", "8" })
+  private int chainLength;
+
+  /** Key type of all entities in the chain */
+  @Param({ "P-256", "P-521", "RSA-2048", "RSA-4096" })
+  private String keyType;
+
+  /** Size of the metadata policy in each subordinate statement */
+  @Param({ "small", "large" })
+  private String policySize;
+
+  /** Caching of merged metadata policies */
+  @Param({ "uncached", "cached" })
+  private String caching;
+
+  private DefaultFederationChainValidator validator;
+
+  private List<EntityStatement> chain;
+
+  /**
+   * Creates entity keys, the chain to validate and the validator under test.
+   *
+   * @throws Exception on errors creating the test data
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    final MetadataPolicySerializer serializer = new StandardMetadataPolicySerializer(
+        DefaultPolicyOperatorFactory.getInstance(),
+        Arrays.stream(PolicyParameterFormats.values())
+            .collect(Collectors.toMap(PolicyParameterFormats::getParameterName,
+                PolicyParameterFormats::toMetadataParameter)));
+
+    // Entity 0 is the Trust Anchor and the last entity is the leaf
+    final List<BenchmarkEntity> entities = new ArrayList<>();
+    for (int i = 0; i < this.chainLength - 1; i++) {
+      entities.add(BenchmarkEntity.generate(i == 0 ? "ta" : i == this.chainLength - 2 ? "op" : "ie" + i,
+          this.keyType));
+    }
+    final EntityMetadataInfoClaim policy = EntityMetadataInfoClaim.builder()
+        .opMetadataObject(serializer.toJsonObject("large".equals(this.policySize)
+            ? getLargePolicy()
+            : getSmallPolicy()))
+        .build();
+
+    this.chain = new ArrayList<>();
+    this.chain.add(getStatement(entities.get(0), entities.get(0), null, null));
+    for (int i = 1; i < entities.size(); i++) {
+      this.chain.add(getStatement(entities.get(i - 1), entities.get(i), policy, null));
+    }
+    final BenchmarkEntity leaf = entities.get(entities.size() - 1);
+    this.chain.add(getStatement(leaf, leaf, null, EntityMetadataInfoClaim.builder()
+        .opMetadataObject(TestMetadata.opMetadata)
+        .build()));
+
+    this.validator = new DefaultFederationChainValidator(new JWKSet(entities.get(0).getJwk()), serializer, null);
+    this.validator.setMergedPolicyCaching("cached".equals(this.caching));
+    // Fail the trial early rather than measuring the cost of a rejected chain
+    this.validator.validate(this.chain);
+  }
+
+  /**
+   * Validates the chain using pooled JWS verifiers.
+   *
+   * @return the validation result
+   * @throws Exception on validation errors
+   */
+  @Benchmark
+  public ChainValidationResult validate() throws Exception {
+    return this.validator.validate(this.chain);
+  }
+
+  /**
+   * Clears the JWS verifier pool and validates the chain, creating a verifier for every signature.
+   *
+   * @return the validation result
+   * @throws Exception on validation errors
+   */
+  @Benchmark
+  public ChainValidationResult validateColdVerifiers() throws Exception {
+    OidcUtils.clearVerifierPool();
+    return this.validator.validate(this.chain);
+  }
+
+  private static EntityStatement getStatement(final BenchmarkEntity issuer, final BenchmarkEntity subject,
+      final EntityMetadataInfoClaim policy, final EntityMetadataInfoClaim metadata) throws Exception {
+    return EntityStatement.builder()
+        .issuer(issuer.getEntityId())
+        .subject(subject.getEntityId())
+        .issueTime(new Date())
+        .expriationTime(Date.from(Instant.now().plus(1, ChronoUnit.DAYS)))
+        .definedParams(EntityStatementDefinedParams.builder()
+            .jwkSet(new JWKSet(subject.getJwk()))
+            .metadataPolicy(policy)
+            .metadata(metadata)
+            .build())
+        .build(issuer.getSigningCredential(), null);
+  }
+
+  /**
+   * Policy with two operators, similar to the policies of the unit test data.
+   */
+  private static EntityTypeMetadataPolicy getSmallPolicy() throws Exception {
+    return EntityTypeMetadataPolicy.builder()
+        .addMetadataParameterPolicy(
+            MetadataParameterPolicy.builder(PolicyParameterFormats.scopes_supported.toMetadataParameter())
+                .add(SubsetOfPolicyOperator.OPERATOR_NAME,
+                    List.of("openid", "profile", "email", "address", "phone", "offline_access"))
+                .build())
+        .addMetadataParameterPolicy(
+            MetadataParameterPolicy.builder(PolicyParameterFormats.claims_supported.toMetadataParameter())
+                .add(SupersetOfPolicyOperator.OPERATOR_NAME, List.of("sub"))
+                .build())
+        .build();
+  }
+
+  /**
+   * Policy with the operators of the small policy and an essential and default operator for every string and string
+   * array metadata parameter.
+   */
+  private static EntityTypeMetadataPolicy getLargePolicy() throws Exception {
+    final EntityTypeMetadataPolicy.EntityTypeMetadataPolicyBuilder builder = EntityTypeMetadataPolicy.builder();
+    getSmallPolicy().getMetadataParameterPolicyMap().values().forEach(builder::addMetadataParameterPolicy);
+    for (final PolicyParameterFormats parameter : PolicyParameterFormats.values()) {
+      if (parameter == PolicyParameterFormats.scopes_supported
+          || parameter == PolicyParameterFormats.claims_supported) {
+        continue;
+      }
+      final String valueType = parameter.getValueType();
+      if (ValueType.STRING.equals(valueType)) {
+        builder.addMetadataParameterPolicy(MetadataParameterPolicy.builder(parameter.toMetadataParameter())
+            .add(EssentialPolicyOperator.OPERATOR_NAME, false)
+            .add(DefaultPolicyOperator.OPERATOR_NAME, "https://example.com/" + parameter.getParameterName())
+            .build());
+      }
+      else if (ValueType.STRING_ARRAY.equals(valueType)) {
+        builder.addMetadataParameterPolicy(MetadataParameterPolicy.builder(parameter.toMetadataParameter())
+            .add(EssentialPolicyOperator.OPERATOR_NAME, false)
+            .add(DefaultPolicyOperator.OPERATOR_NAME, List.of(parameter.getParameterName() + "-default"))
+            .build());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * An entity of the benchmark chain with its key and signing credential.
+   */
+  @Getter
+  @AllArgsConstructor
+  private static class BenchmarkEntity {
+
+    private final String entityId;
+    private final JWK jwk;
+    private final JWTSigningCredential signingCredential;
+
+    static BenchmarkEntity generate(final String name, final String keyType) throws Exception {
+      final String entityId = "https://example.com/" + name;
+      final String kid = "bench_" + name;
+      switch (keyType) {
+      case "P-256":
+        return generateEc(entityId, kid, Curve.P_256, JWSAlgorithm.ES256);
+      case "P-521":
+        return generateEc(entityId, kid, Curve.P_521, JWSAlgorithm.ES512);
+      case "RSA-2048":
+        return generateRsa(entityId, kid, 2048);
+      case "RSA-4096":
+        return generateRsa(entityId, kid, 4096);
+      default:
+        throw new IllegalArgumentException("Unsupported key type: " + keyType);
+      }
+    }
+
+    private static BenchmarkEntity generateEc(final String entityId, final String kid, final Curve curve,
+        final JWSAlgorithm algorithm) throws Exception {
+      final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec(curve.getStdName()));
+      final KeyPair keyPair = generator.generateKeyPair();
+      final ECPublicKey publicKey = (ECPublicKey) keyPair.getPublic();
+      return new BenchmarkEntity(entityId,
+          new ECKey.Builder(curve, publicKey).keyID(kid).build(),
+          new JWTSigningCredential(List.of(algorithm), new ECDSASigner((ECPrivateKey) keyPair.getPrivate()),
+              new ECDSAVerifier(publicKey), kid));
+    }
+
+    private static BenchmarkEntity generateRsa(final String entityId, final String kid, final int keySize)
+        throws Exception {
+      final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(keySize);
+      final KeyPair keyPair = generator.generateKeyPair();
+      final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+      return new BenchmarkEntity(entityId,
+          new RSAKey.Builder(publicKey).keyID(kid).build(),
+          new JWTSigningCredential(List.of(JWSAlgorithm.RS256), new RSASSASigner(keyPair.getPrivate()),
+              new RSASSAVerifier(publicKey), kid));
+    }
+  }
+
+}
@@ -37,6 +37,7 @@ import java.text.ParseException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Main data class holding data about an entity statement
@@ -92,12 +93,31 @@ public class EntityStatement {
   @Getter
   Map<String, Object> extensions;
 
+  /** The parsed JWK set, set on first access */
+  private volatile JWKSet jwkSet;
+
+  /** The compiled naming constraints, set on first access */
+  private volatile NamingConstraintsMatcher namingConstraintsMatcher;
+
   /*
    *  Getters for defined claims
    */
 
+  /**
+   * Get the JWK set of the entity statement subject. The key set is parsed on first access and the same immutable
+   * instance is returned on all later calls.
+   *
+   * @return the JWK set of the subject
+   * @throws ParseException if the jwks claim can not be parsed as a JWK set
+   */
   public JWKSet getJwkSet() throws ParseException {
-    return JWKSet.parse(this.definedParams.getJwkSet());
+    JWKSet parsedJwkSet = this.jwkSet;
+    if (parsedJwkSet == null) {
+      // Concurrent first calls may parse the key set more than once, but all results are equal and immutable
+      parsedJwkSet = JWKSet.parse(this.definedParams.getJwkSet());
+      this.jwkSet = parsedJwkSet;
+    }
+    return parsedJwkSet;
   }
 
   public List<String> getAuthorityHints() {
@@ -120,6 +140,23 @@ public class EntityStatement {
     return this.definedParams.getConstraints();
   }
 
+  /**
+   * Get the naming constraints of the constraints claim compiled into a matcher. The matcher is compiled on first
+   * access and the same immutable instance is returned on all later calls.
+   *
+   * @return naming constraints matcher, permitting all Entity Identifiers if no naming constraints are declared
+   */
+  public NamingConstraintsMatcher getNamingConstraintsMatcher() {
+    NamingConstraintsMatcher matcher = this.namingConstraintsMatcher;
+    if (matcher == null) {
+      matcher = NamingConstraintsMatcher.compile(Optional.ofNullable(this.getConstraints())
+          .map(ConstraintsClaim::getNamingConstraints)
+          .orElse(null));
+      this.namingConstraintsMatcher = matcher;
+    }
+    return matcher;
+  }
+
   public List<String> getCriticalClaims() {
     return this.definedParams.getCriticalClaims();
   }
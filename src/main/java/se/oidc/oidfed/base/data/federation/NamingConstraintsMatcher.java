@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.data.federation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable matcher of Entity Identifiers against naming constraints.
+ *
+ * <p>
+ * Naming constraints are applied as prefixes. An Entity Identifier matches a name in the constraints if it starts with
+ * that name. The permitted and excluded names are each compiled into a prefix trie, so the cost of matching an Entity
+ * Identifier depends on the length of the identifier and not on the number of names in the constraints.
+ * </p>
+ */
+public final class NamingConstraintsMatcher {
+
+  /** Matcher for absent naming constraints, which permits all Entity Identifiers */
+  public static final NamingConstraintsMatcher EMPTY = new NamingConstraintsMatcher(null, null);
+
+  private final PrefixTrie permitted;
+  private final PrefixTrie excluded;
+
+  private NamingConstraintsMatcher(final PrefixTrie permitted, final PrefixTrie excluded) {
+    this.permitted = permitted;
+    this.excluded = excluded;
+  }
+
+  /**
+   * Compiles naming constraints into a matcher.
+   *
+   * @param namingConstraints the naming constraints or null
+   * @return naming constraints matcher
+   */
+  public static NamingConstraintsMatcher compile(final NamingConstraints namingConstraints) {
+    if (namingConstraints == null) {
+      return EMPTY;
+    }
+    return new NamingConstraintsMatcher(
+        PrefixTrie.compile(namingConstraints.getPermitted()),
+        PrefixTrie.compile(namingConstraints.getExcluded()));
+  }
+
+  /**
+   * Check if an Entity Identifier starts with any excluded name.
+   *
+   * @param entityIdentifier the Entity Identifier
+   * @return true if the Entity Identifier is excluded
+   */
+  public boolean isExcluded(final String entityIdentifier) {
+    return this.excluded != null && this.excluded.matchesPrefixOf(entityIdentifier);
+  }
+
+  /**
+   * Check if an Entity Identifier starts with any permitted name. All Entity Identifiers are permitted if no permitted
+   * names are declared.
+   *
+   * @param entityIdentifier the Entity Identifier
+   * @return true if the Entity Identifier is permitted
+   */
+  public boolean isPermitted(final String entityIdentifier) {
+    return this.permitted == null || this.permitted.matchesPrefixOf(entityIdentifier);
+  }
+
+  /**
+   * Prefix trie of names, where each node is a character of a name.
+   */
+  private static final class PrefixTrie {
+
+    private final Map<Character, PrefixTrie> children = new HashMap<>();
+    private boolean terminal;
+
+    /**
+     * Compiles a list of names into a trie.
+     *
+     * @param names the names
+     * @return the trie or null if there are no names
+     */
+    private static PrefixTrie compile(final List<String> names) {
+      if (names == null || names.isEmpty()) {
+        return null;
+      }
+      final PrefixTrie root = new PrefixTrie();
+      for (final String name : names) {
+        PrefixTrie node = root;
+        for (int i = 0; i < name.length(); i++) {
+          node = node.children.computeIfAbsent(name.charAt(i), c -> new PrefixTrie());
+        }
+        node.terminal = true;
+      }
+      return root;
+    }
+
+    /**
+     * Check if any name in the trie is a prefix of a value.
+     *
+     * @param value the value to match
+     * @return true if the value starts with any name in the trie
+     */
+    private boolean matchesPrefixOf(final String value) {
+      PrefixTrie node = this;
+      for (int i = 0; i < value.length(); i++) {
+        if (node.terminal) {
+          return true;
+        }
+        node = node.children.get(value.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.terminal;
+    }
+  }
+
+}
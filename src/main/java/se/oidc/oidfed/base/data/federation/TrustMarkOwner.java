@@ -47,9 +47,25 @@ public class TrustMarkOwner {
   @JsonProperty("jwks")
   private Map<String, Object> jwkSet;
 
+  /** The parsed JWK set, set on first access */
+  @JsonIgnore
+  private volatile JWKSet parsedJwkSet;
+
+  /**
+   * Get the JWK set of the trust mark owner. The key set is parsed on first access and the same immutable instance is
+   * returned on all later calls.
+   *
+   * @return the JWK set of the trust mark owner
+   * @throws ParseException if the jwks claim can not be parsed as a JWK set
+   */
   @JsonIgnore
   public JWKSet getJwkSet() throws ParseException {
-    return JWKSet.parse(this.jwkSet);
+    JWKSet jwks = this.parsedJwkSet;
+    if (jwks == null) {
+      jwks = JWKSet.parse(this.jwkSet);
+      this.parsedJwkSet = jwks;
+    }
+    return jwks;
   }
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous companion to {@link FederationChainValidator} for callers that must not block while chains are
+ * validated.
+ */
+public interface AsyncFederationChainValidator {
+
+  /**
+   * Validates a chain asynchronously as by {@link FederationChainValidator#validate(List)}.
+   *
+   * <p>
+   * The returned future completes with the validation result, or exceptionally with a
+   * {@link ChainValidationException} if the chain is not valid. If the validator can not accept more work, the future
+   * completes exceptionally with a {@link java.util.concurrent.RejectedExecutionException}. Cancelling the returned
+   * future cancels the validation.
+   * </p>
+   *
+   * @param chain the trust chain in any order
+   * @return future chain validation result
+   */
+  CompletableFuture<ChainValidationResult> validateAsync(final List<EntityStatement> chain);
+
+  /**
+   * Validates a chain asynchronously with a deadline. If validation is not completed within the timeout, the validation
+   * is cancelled and the returned future completes exceptionally with a {@link java.util.concurrent.TimeoutException}.
+   *
+   * @param chain the trust chain in any order
+   * @param timeout the maximum time to wait for the validation result, including time waiting to be processed
+   * @return future chain validation result
+   * @see #validateAsync(List)
+   */
+  CompletableFuture<ChainValidationResult> validateAsync(final List<EntityStatement> chain, final Duration timeout);
+
+}
@@ -15,6 +15,8 @@
  */
 package se.oidc.oidfed.base.process.chain;
 
+import lombok.Getter;
+
 import java.io.Serial;
 
 /**
@@ -25,11 +27,44 @@ public class ChainValidationException extends Exception {
   @Serial
   private static final long serialVersionUID = 7340001608971248505L;
 
+  /** The validation stage where validation failed, or null if not known */
+  @Getter
+  private final ChainValidationStage stage;
+
+  /** The reason validation failed, or null if not known */
+  @Getter
+  private final ChainValidationFailureReason reason;
+
   public ChainValidationException(final String message) {
-    super(message);
+    this((ChainValidationStage) null, message);
   }
 
   public ChainValidationException(final String message, final Throwable cause) {
+    this((ChainValidationStage) null, message, cause);
+  }
+
+  public ChainValidationException(final ChainValidationStage stage, final String message) {
+    super(message);
+    this.stage = stage;
+    this.reason = null;
+  }
+
+  public ChainValidationException(final ChainValidationStage stage, final String message, final Throwable cause) {
+    super(message, cause);
+    this.stage = stage;
+    this.reason = null;
+  }
+
+  public ChainValidationException(final ChainValidationFailureReason reason, final String message) {
+    super(message);
+    this.stage = reason.getStage();
+    this.reason = reason;
+  }
+
+  public ChainValidationException(final ChainValidationFailureReason reason, final String message,
+      final Throwable cause) {
     super(message, cause);
+    this.stage = reason.getStage();
+    this.reason = reason;
   }
 }
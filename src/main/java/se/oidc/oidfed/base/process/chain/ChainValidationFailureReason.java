@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import lombok.Getter;
+
+/**
+ * Enumerated reasons for chain validation failures. Each reason belongs to the {@link ChainValidationStage} where it
+ * is detected.
+ */
+public enum ChainValidationFailureReason {
+
+  /** The chain does not include at least two statements */
+  CHAIN_TOO_SHORT(ChainValidationStage.STRUCTURE),
+
+  /** More than one statement in the chain is issued by the same entity */
+  DUPLICATE_ISSUER(ChainValidationStage.STRUCTURE),
+
+  /** The chain includes more than two Entity Configurations */
+  TOO_MANY_ENTITY_CONFIGURATIONS(ChainValidationStage.STRUCTURE),
+
+  /** The chain includes no Trust Anchor Entity Configuration */
+  MISSING_TRUST_ANCHOR_CONFIGURATION(ChainValidationStage.STRUCTURE),
+
+  /** The chain includes no target Entity Configuration */
+  MISSING_TARGET_CONFIGURATION(ChainValidationStage.STRUCTURE),
+
+  /** The statements of the chain do not form a path from the Trust Anchor to the target entity */
+  BROKEN_PATH(ChainValidationStage.STRUCTURE),
+
+  /** The statements of the chain form a loop */
+  PATH_LOOP(ChainValidationStage.STRUCTURE),
+
+  /** A statement has no issue time */
+  MISSING_ISSUE_TIME(ChainValidationStage.VALIDITY_TIME),
+
+  /** A statement has no expiration time */
+  MISSING_EXPIRATION_TIME(ChainValidationStage.VALIDITY_TIME),
+
+  /** A statement has an issue time in the future */
+  ISSUED_IN_FUTURE(ChainValidationStage.VALIDITY_TIME),
+
+  /** A statement has expired */
+  EXPIRED(ChainValidationStage.VALIDITY_TIME),
+
+  /** A statement includes a critical claim that is not supported */
+  UNSUPPORTED_CRITICAL_CLAIM(ChainValidationStage.CRITICAL_CLAIMS),
+
+  /** The max path length constraint is exceeded */
+  MAX_PATH_LENGTH_EXCEEDED(ChainValidationStage.CONSTRAINTS),
+
+  /** An entity identifier matches an excluded naming constraint */
+  EXCLUDED_NAME(ChainValidationStage.CONSTRAINTS),
+
+  /** An entity identifier does not match any permitted naming constraint */
+  NOT_PERMITTED_NAME(ChainValidationStage.CONSTRAINTS),
+
+  /** The leaf entity has an entity type that is not allowed */
+  LEAF_ENTITY_TYPE_NOT_ALLOWED(ChainValidationStage.CONSTRAINTS),
+
+  /** The Trust Anchor of the chain is not trusted */
+  UNTRUSTED_TRUST_ANCHOR(ChainValidationStage.SIGNATURES),
+
+  /** No trusted key matches the key used to sign a statement */
+  NO_MATCHING_KEY(ChainValidationStage.SIGNATURES),
+
+  /** A signature could not be verified */
+  INVALID_SIGNATURE(ChainValidationStage.SIGNATURES),
+
+  /** The leaf statement is not a valid leaf Entity Configuration */
+  INVALID_LEAF_STATEMENT(ChainValidationStage.LEAF_STATEMENT),
+
+  /** The metadata policies of the chain could not be merged */
+  METADATA_POLICY_MERGE_FAILED(ChainValidationStage.METADATA_POLICY_MERGE),
+
+  /** The leaf entity has no metadata */
+  MISSING_LEAF_METADATA(ChainValidationStage.METADATA_POLICY_APPLICATION),
+
+  /** The leaf metadata could not be processed against the merged metadata policy */
+  METADATA_POLICY_APPLICATION_FAILED(ChainValidationStage.METADATA_POLICY_APPLICATION),
+
+  /** The validation task was rejected by the executor */
+  EXECUTION_REJECTED(null),
+
+  /** An unexpected error occurred during validation */
+  UNEXPECTED_ERROR(null);
+
+  /** The validation stage where failures of this reason are detected, or null if not bound to a stage */
+  @Getter
+  private final ChainValidationStage stage;
+
+  ChainValidationFailureReason(final ChainValidationStage stage) {
+    this.stage = stage;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.KeyType;
+
+/**
+ * Listener receiving instrumentation events from chain validation.
+ *
+ * <p>
+ * All methods have empty default implementations, so an implementation only needs to override the events it is
+ * interested in. Events may be reported concurrently from several threads, so implementations must be thread safe and
+ * should return quickly. The listener must not throw exceptions.
+ * </p>
+ */
+public interface ChainValidationListener {
+
+  /** Listener ignoring all events. Validators skip all instrumentation when this listener is used */
+  ChainValidationListener NOOP = new ChainValidationListener() {
+  };
+
+  /**
+   * Caches used during chain validation.
+   */
+  enum CacheType {
+
+    /** Cache of verified statement signatures */
+    SIGNATURE_VERIFICATION,
+
+    /** Cache of merged metadata policies of chain prefixes */
+    MERGED_METADATA_POLICY
+  }
+
+  /**
+   * Called when a validation stage is completed for a chain.
+   *
+   * @param stage the completed stage
+   * @param durationNanos the duration of the stage in nanoseconds
+   */
+  default void stageCompleted(final ChainValidationStage stage, final long durationNanos) {
+  }
+
+  /**
+   * Called when the signature of a statement is verified.
+   *
+   * @param algorithm the signature algorithm of the statement
+   * @param keyType the type of the key that verified the signature
+   */
+  default void signatureVerified(final JWSAlgorithm algorithm, final KeyType keyType) {
+  }
+
+  /**
+   * Called when a cache is looked up during chain validation.
+   *
+   * @param cacheType the cache
+   * @param hit true if the cache held the requested value
+   */
+  default void cacheAccessed(final CacheType cacheType, final boolean hit) {
+  }
+
+  /**
+   * Called when a chain is successfully validated.
+   *
+   * @param chainLength the number of statements in the chain
+   * @param durationNanos the duration of the validation in nanoseconds
+   */
+  default void chainValidated(final int chainLength, final long durationNanos) {
+  }
+
+  /**
+   * Called when chain validation fails.
+   *
+   * @param chainLength the number of statements in the chain
+   * @param stage the stage where validation failed, or null if not known
+   * @param reason the reason validation failed, or null if not known
+   * @param exception the validation exception
+   */
+  default void chainValidationFailed(final int chainLength, final ChainValidationStage stage,
+      final ChainValidationFailureReason reason, final ChainValidationException exception) {
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The outcome of validating one chain in a batch of chains. Holds either the validation result or the exception that
+ * caused the validation to fail.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class ChainValidationOutcome {
+
+  /** The validation result, or null if validation failed */
+  private final ChainValidationResult result;
+
+  /** The validation exception, or null if validation succeeded */
+  private final ChainValidationException exception;
+
+  /**
+   * Creates an outcome of a successful validation.
+   *
+   * @param result the validation result
+   * @return chain validation outcome
+   */
+  public static ChainValidationOutcome success(final ChainValidationResult result) {
+    return new ChainValidationOutcome(result, null);
+  }
+
+  /**
+   * Creates an outcome of a failed validation.
+   *
+   * @param exception the exception that caused the validation to fail
+   * @return chain validation outcome
+   */
+  public static ChainValidationOutcome failure(final ChainValidationException exception) {
+    return new ChainValidationOutcome(null, exception);
+  }
+
+  /**
+   * Check if the chain was successfully validated.
+   *
+   * @return true if the chain is valid
+   */
+  public boolean isValid() {
+    return this.result != null;
+  }
+
+  /**
+   * Get the validation result, or throw an exception if the validation failed.
+   *
+   * <p>
+   * An outcome may be shared between threads and read many times, so the exception that caused the validation to fail
+   * is not thrown itself. Each call throws a new exception with the same stage, reason and message, and with the
+   * original exception as cause.
+   * </p>
+   *
+   * @return the validation result
+   * @throws ChainValidationException if validation failed
+   */
+  public ChainValidationResult getResultOrThrow() throws ChainValidationException {
+    if (this.exception != null) {
+      if (this.exception.getReason() != null) {
+        throw new ChainValidationException(this.exception.getReason(), this.exception.getMessage(), this.exception);
+      }
+      throw new ChainValidationException(this.exception.getStage(), this.exception.getMessage(), this.exception);
+    }
+    return this.result;
+  }
+
+}
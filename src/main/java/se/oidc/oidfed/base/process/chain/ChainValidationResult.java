@@ -22,8 +22,11 @@ import lombok.NoArgsConstructor;
 import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
 import se.oidc.oidfed.base.data.federation.EntityStatement;
 import se.oidc.oidfed.base.data.federation.TrustMarkClaim;
+import se.oidc.oidfed.base.utils.OidcUtils;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Result data from chain validation
@@ -46,4 +49,31 @@ public class ChainValidationResult {
   // Trust marks for the subject to be validated
   private List<TrustMarkClaim> subjectTrustMarks;
 
+  /**
+   * Creates a copy of this result that can be modified without affecting this result. Metadata is copied including
+   * nested JSON objects and arrays. The entity statements of the validated chain are shared, as they are not modified.
+   *
+   * @return copy of this result
+   */
+  public ChainValidationResult copy() {
+    return new ChainValidationResult(
+        this.validatedChain == null ? null : new ArrayList<>(this.validatedChain),
+        copyMetadata(this.declaredMetadata),
+        copyMetadata(this.policyProcessedMetadata),
+        this.subjectTrustMarks == null ? null : this.subjectTrustMarks.stream()
+            .map(trustMark -> new TrustMarkClaim(trustMark.getTrustMarkId(), trustMark.getTrustMark()))
+            .collect(Collectors.toCollection(ArrayList::new)));
+  }
+
+  private static EntityMetadataInfoClaim copyMetadata(final EntityMetadataInfoClaim metadata) {
+    if (metadata == null) {
+      return null;
+    }
+    final EntityMetadataInfoClaim.EntityMetadataInfoClaimBuilder builder = EntityMetadataInfoClaim.builder();
+    metadata.getClaimObjects()
+        .forEach((entityType, metadataObject) -> builder.customEntityMetadataObject(entityType,
+            OidcUtils.copyJsonObject(metadataObject)));
+    return builder.build();
+  }
+
 }
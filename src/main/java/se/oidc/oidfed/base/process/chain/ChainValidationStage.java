@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+/**
+ * The stages of chain validation, in the order they are performed.
+ *
+ * <p>
+ * Checks that are cheap to perform are done before signature verification, so that malformed or expired chains are
+ * rejected without any cryptographic operations.
+ * </p>
+ */
+public enum ChainValidationStage {
+
+  /** Ordering of the chain and checks of the chain structure */
+  STRUCTURE,
+
+  /** Checks of issue time and expiration time of all statements */
+  VALIDITY_TIME,
+
+  /** Checks that all critical claims are supported */
+  CRITICAL_CLAIMS,
+
+  /** Checks of max path length, naming and leaf entity type constraints */
+  CONSTRAINTS,
+
+  /** Verification of the signatures of all statements */
+  SIGNATURES,
+
+  /** Checks of the leaf Entity Configuration and collection of its metadata */
+  LEAF_STATEMENT,
+
+  /** Merging of the metadata policies of the chain */
+  METADATA_POLICY_MERGE,
+
+  /** Processing of leaf metadata against the merged metadata policy */
+  METADATA_POLICY_APPLICATION,
+
+  /** Collection of the Trust Marks of the leaf entity */
+  TRUST_MARK_COLLECTION
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import java.io.Serial;
+
+/**
+ * Exception for errors fetching Entity Statements
+ */
+public class EntityStatementFetchException extends Exception {
+
+  @Serial
+  private static final long serialVersionUID = 6914215617580341573L;
+
+  public EntityStatementFetchException(final String message) {
+    super(message);
+  }
+
+  public EntityStatementFetchException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+
+import java.util.List;
+
+/**
+ * Interface for fetching Entity Statements from federation entities.
+ *
+ * <p>
+ * Implementations perform the actual retrieval of statements, for example over HTTP. Implementations are not required
+ * to validate signatures of fetched statements, as this is done when the chain is validated.
+ * </p>
+ */
+public interface EntityStatementFetcher {
+
+  /**
+   * Fetch the Entity Configuration of an entity.
+   *
+   * @param entityIdentifier the Entity Identifier of the entity
+   * @return the Entity Configuration of the entity
+   * @throws EntityStatementFetchException if the Entity Configuration can not be fetched
+   */
+  EntityStatement fetchEntityConfiguration(final String entityIdentifier) throws EntityStatementFetchException;
+
+  /**
+   * Fetch a Subordinate Statement from the fetch endpoint of a superior entity.
+   *
+   * @param fetchEndpoint the fetch endpoint of the superior entity
+   * @param subject the Entity Identifier of the subject of the statement
+   * @return the Subordinate Statement about the subject
+   * @throws EntityStatementFetchException if the statement can not be fetched
+   */
+  EntityStatement fetchSubordinateStatement(final String fetchEndpoint, final String subject)
+      throws EntityStatementFetchException;
+
+  /**
+   * Fetch the Entity Identifiers of the Immediate Subordinates of a superior entity from its list endpoint.
+   *
+   * <p>
+   * The default implementation does not support listing and always throws {@link EntityStatementFetchException}.
+   * </p>
+   *
+   * @param listEndpoint the list endpoint of the superior entity
+   * @return the Entity Identifiers of the Immediate Subordinates of the entity
+   * @throws EntityStatementFetchException if the list can not be fetched
+   */
+  default List<String> fetchSubordinateList(final String listEndpoint) throws EntityStatementFetchException {
+    throw new EntityStatementFetchException("Subordinate listing is not supported by this fetcher");
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain;
+
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+
+/**
+ * Interface for a persistent store of fetched Entity Statements.
+ *
+ * <p>
+ * A store keeps fetched statements across restarts, so that a resolver can build paths without fetching every
+ * statement again. Statements are stored as fetched, and their signatures must be validated when the chain is
+ * validated. A store is an optimization only. Implementations should not fail a request because the store is
+ * unavailable, but should report it as a missing statement.
+ * </p>
+ */
+public interface EntityStatementStore {
+
+  /**
+   * Get a stored statement.
+   *
+   * @param issuer the Entity Identifier of the issuer of the statement
+   * @param subject the Entity Identifier of the subject of the statement
+   * @return the latest stored statement with this issuer and subject, or null if no such statement is stored or if
+   *     the stored statement has expired
+   */
+  EntityStatement get(final String issuer, final String subject);
+
+  /**
+   * Store a statement, replacing any stored statement with the same issuer and subject.
+   *
+   * @param statement the statement to store
+   */
+  void put(final EntityStatement statement);
+
+}
@@ -17,6 +17,8 @@ package se.oidc.oidfed.base.process.chain;
 
 import se.oidc.oidfed.base.data.federation.EntityStatement;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -47,4 +49,29 @@ public interface FederationChainValidator {
    */
   ChainValidationResult validate(final List<EntityStatement> chain) throws ChainValidationException;
 
+  /**
+   * Validates a collection of chains.
+   *
+   * <p>
+   * Each chain is validated as by {@link #validate(List)}. A failure to validate one chain does not affect the
+   * validation of other chains. Implementations may take advantage of statements shared between chains to avoid
+   * repeating work. The default implementation validates the chains one by one.
+   * </p>
+   *
+   * @param chains the chains to validate, each in any order
+   * @return the validation outcome of each chain, in the iteration order of the provided collection
+   */
+  default List<ChainValidationOutcome> validateAll(final Collection<List<EntityStatement>> chains) {
+    final List<ChainValidationOutcome> outcomes = new ArrayList<>(chains.size());
+    for (final List<EntityStatement> chain : chains) {
+      try {
+        outcomes.add(ChainValidationOutcome.success(this.validate(chain)));
+      }
+      catch (final ChainValidationException e) {
+        outcomes.add(ChainValidationOutcome.failure(e));
+      }
+    }
+    return outcomes;
+  }
+
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import com.nimbusds.jose.JOSEException;
+import jakarta.annotation.Nonnull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationOutcome;
+import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.process.chain.FederationChainValidator;
+import se.oidc.oidfed.base.security.SignatureVerificationCache;
+import se.oidc.oidfed.base.security.TrustAnchorRegistry;
+import se.oidc.oidfed.base.utils.BoundedCache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Chain validator that caches the outcome of chain validations performed by another validator.
+ *
+ * <p>
+ * Validation outcomes are keyed by the JWS digests of the statements of the chain, regardless of the order in which
+ * the statements are presented. A successful validation result is cached until the earliest expiration time of the
+ * statements in the chain, optionally limited by a maximum time to live. Failed validations are cached for a short
+ * time, so that repeated attempts to validate the same invalid chain do not each cause a full validation. A cached
+ * failure is reported by throwing a new exception with the stage, reason and message of the original exception, and
+ * the original exception as cause. A cached result is returned as a copy, so that callers modifying the returned
+ * result do not affect later cache hits.
+ * </p>
+ * <p>
+ * If the validator validates chains to the Trust Anchors of a {@link TrustAnchorRegistry}, the registry should be set
+ * with {@link #setTrustAnchorRegistry(TrustAnchorRegistry)}. Outcomes cached before the registry was last updated are
+ * then not used, so that removed or replaced Trust Anchor keys take effect immediately.
+ * </p>
+ * <p>
+ * Chains that contain statements without expiration time are not cached.
+ * </p>
+ */
+@Slf4j
+public class CachingFederationChainValidator implements FederationChainValidator {
+
+  /** The default maximum number of cached validation outcomes */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** The default time failed validations are cached */
+  public static final Duration DEFAULT_FAILURE_TTL = Duration.ofSeconds(30);
+
+  private final FederationChainValidator validator;
+  private final Duration maxTtl;
+  private final Duration failureTtl;
+  private final Clock clock;
+  private final BoundedCache<String, CachedOutcome> cache;
+
+  /**
+   * Registry of the Trust Anchors used by the underlying validator. Default is null, which means that cached outcomes
+   * are used until they expire.
+   */
+  @Setter
+  private TrustAnchorRegistry trustAnchorRegistry;
+
+  /**
+   * Constructor using default cache size and failure caching time, and no maximum time to live for successful
+   * validations.
+   *
+   * @param validator the validator performing chain validation
+   */
+  public CachingFederationChainValidator(final FederationChainValidator validator) {
+    this(validator, DEFAULT_MAX_SIZE, null, DEFAULT_FAILURE_TTL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param validator the validator performing chain validation
+   * @param maxSize the maximum number of cached validation outcomes
+   * @param maxTtl the maximum time a successful validation is cached or null to cache until the chain expires
+   * @param failureTtl the time a failed validation is cached or null to not cache failed validations
+   */
+  public CachingFederationChainValidator(final FederationChainValidator validator, final int maxSize,
+      final Duration maxTtl, final Duration failureTtl) {
+    this(validator, maxSize, maxTtl, failureTtl, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param validator the validator performing chain validation
+   * @param maxSize the maximum number of cached validation outcomes
+   * @param maxTtl the maximum time a successful validation is cached or null to cache until the chain expires
+   * @param failureTtl the time a failed validation is cached or null to not cache failed validations
+   * @param clock the clock used to determine expiration of cached outcomes
+   */
+  public CachingFederationChainValidator(final FederationChainValidator validator, final int maxSize,
+      final Duration maxTtl, final Duration failureTtl, final Clock clock) {
+    this.validator = validator;
+    this.maxTtl = maxTtl;
+    this.failureTtl = failureTtl;
+    this.clock = clock;
+    this.cache = new BoundedCache<>(maxSize, clock);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ChainValidationResult validate(@Nonnull final List<EntityStatement> chain) throws ChainValidationException {
+
+    final String cacheKey = this.getCacheKey(chain);
+    if (cacheKey == null) {
+      return this.validator.validate(chain);
+    }
+    // The registry version is read before validation, so that an update during validation makes the outcome stale
+    final long registryVersion = this.getRegistryVersion();
+    final CachedOutcome cachedOutcome = this.cache.get(cacheKey);
+    if (cachedOutcome != null && cachedOutcome.registryVersion == registryVersion) {
+      log.debug("Using cached chain validation outcome");
+      return cachedOutcome.outcome.getResultOrThrow().copy();
+    }
+
+    try {
+      final ChainValidationResult result = this.validator.validate(chain);
+      this.cache.put(cacheKey, new CachedOutcome(ChainValidationOutcome.success(result.copy()), registryVersion),
+          this.getExpirationTime(chain));
+      return result;
+    }
+    catch (final ChainValidationException e) {
+      if (this.failureTtl != null) {
+        this.cache.put(cacheKey, new CachedOutcome(ChainValidationOutcome.failure(e), registryVersion),
+            this.clock.instant().plus(this.failureTtl));
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Remove all cached validation outcomes.
+   */
+  public void clear() {
+    this.cache.clear();
+  }
+
+  /**
+   * Get the key identifying a chain in the cache. The key is independent of the order of the chain statements.
+   *
+   * @param chain the chain
+   * @return the cache key or null if the chain should not be cached
+   */
+  private String getCacheKey(final List<EntityStatement> chain) {
+    try {
+      final List<String> digests = new ArrayList<>(chain.size());
+      for (final EntityStatement entityStatement : chain) {
+        if (entityStatement.getExpirationTime() == null) {
+          return null;
+        }
+        digests.add(SignatureVerificationCache.getJwsDigest(entityStatement.getSignedJWT()));
+      }
+      Collections.sort(digests);
+      return String.join(".", digests);
+    }
+    catch (final JOSEException e) {
+      log.debug("Unable to calculate chain cache key, validation outcome is not cached", e);
+      return null;
+    }
+  }
+
+  private long getRegistryVersion() {
+    final TrustAnchorRegistry registry = this.trustAnchorRegistry;
+    return registry == null ? 0 : registry.getVersion();
+  }
+
+  private Instant getExpirationTime(final List<EntityStatement> chain) {
+    final Instant chainExpirationTime = chain.stream()
+        .map(EntityStatement::getExpirationTime)
+        .map(Date::toInstant)
+        .min(Instant::compareTo)
+        .orElse(null);
+    if (this.maxTtl == null) {
+      return chainExpirationTime;
+    }
+    final Instant maxExpirationTime = this.clock.instant().plus(this.maxTtl);
+    return chainExpirationTime == null || maxExpirationTime.isBefore(chainExpirationTime)
+        ? maxExpirationTime
+        : chainExpirationTime;
+  }
+
+  /**
+   * A cached validation outcome together with the Trust Anchor registry version it was obtained with.
+   */
+  private static class CachedOutcome {
+
+    private final ChainValidationOutcome outcome;
+    private final long registryVersion;
+
+    CachedOutcome(final ChainValidationOutcome outcome, final long registryVersion) {
+      this.outcome = outcome;
+      this.registryVersion = registryVersion;
+    }
+  }
+
+}
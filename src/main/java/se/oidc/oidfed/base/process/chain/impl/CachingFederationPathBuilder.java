@@ -0,0 +1,900 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import com.nimbusds.jose.JOSEException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import se.oidc.oidfed.base.data.federation.ConstraintsClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetchException;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetcher;
+import se.oidc.oidfed.base.process.chain.EntityStatementStore;
+import se.oidc.oidfed.base.process.chain.FederationPathBuilder;
+import se.oidc.oidfed.base.process.chain.PathBuildingException;
+import se.oidc.oidfed.base.process.chain.impl.FetchSupport.StatementLoader;
+import se.oidc.oidfed.base.utils.BoundedCache;
+import se.oidc.oidfed.base.utils.OidcUtils;
+
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Federation path builder that fetches Entity Statements using an {@link EntityStatementFetcher}.
+ *
+ * <p>
+ * The path is built by following the authority hints of the target entity and its superiors until the Trust Anchor is
+ * reached. Each superior Entity Configuration is fetched to locate its fetch endpoint, which provides the Subordinate
+ * Statement about the entity below it.
+ * </p>
+ * <p>
+ * Fetched statements are cached until their expiration time. Concurrent requests for the same Entity Configuration, or
+ * for the same Subordinate Statement from the same fetch endpoint, are coalesced into a single fetch whose result is
+ * shared by all requesting threads.
+ * </p>
+ * <p>
+ * If a refresh executor is set, cached statements are refreshed ahead of their expiration. A statement that is
+ * requested after a configurable fraction of its lifetime from issue to expiration, with random jitter, is fetched
+ * again in the background while the cached copy is returned. The signature of a refreshed Subordinate Statement is
+ * verified with the keys of the Entity Configuration of its issuer, and the signature of a refreshed Entity
+ * Configuration with the keys of the cached copy, before the refreshed statement replaces the cached copy. If the
+ * signature is not valid, the refresh fails. If the fetched statement has the same expiration time as the cached copy,
+ * it has not been reissued, and the next refresh is postponed halfway to its expiration in the same way as after a
+ * failed refresh. Only statements that are requested are refreshed, and requests only wait for a fetch when the
+ * cached copy has actually expired.
+ * </p>
+ * <p>
+ * If an {@link EntityStatementStore} is set, fetched statements are also written to the store, and statements that are
+ * not cached are read from the store before they are fetched. A persistent store allows a restarted resolver to build
+ * paths without fetching the whole federation again.
+ * </p>
+ * <p>
+ * By default, authority hints are explored depth-first in the calling thread. If a discovery executor is set,
+ * authority hints are instead explored breadth-first, fetching the statements of all authority hints at the same
+ * distance from the target entity concurrently, with at most {@code maxFanOut} concurrent fetches. This mode returns
+ * the shortest path to the Trust Anchor. Branches are pruned if the superior entity can not be fetched, if it is a
+ * Trust Anchor other than the requested one, or if the max_path_length constraint of a fetched statement is exceeded
+ * by the path below it.
+ * </p>
+ * <p>
+ * Failures are cached as well, so that a misconfigured or unreachable entity does not cause repeated fetches. A failed
+ * fetch of a statement, and a failed path building for an entity and Trust Anchor, is reported again without any new
+ * fetch until a retry time has passed. The retry time starts at the minimum failure time to live and is doubled for
+ * each consecutive failure, up to the maximum failure time to live. A successful fetch or path building resets it.
+ * </p>
+ * <p>
+ * Apart from refreshed statements, signatures of fetched statements are not verified by this path builder. The path
+ * must be validated by a {@link se.oidc.oidfed.base.process.chain.FederationChainValidator} before it is used.
+ * </p>
+ */
+@Slf4j
+public class CachingFederationPathBuilder implements FederationPathBuilder {
+
+  /** The default maximum number of cached statements */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** The default maximum number of concurrent fetches in breadth-first discovery */
+  public static final int DEFAULT_MAX_FAN_OUT = 8;
+
+  /** The default time a failure is cached after the first failure */
+  public static final Duration DEFAULT_MIN_FAILURE_TTL = Duration.ofSeconds(5);
+
+  /** The default maximum time a failure is cached after consecutive failures */
+  public static final Duration DEFAULT_MAX_FAILURE_TTL = Duration.ofMinutes(5);
+
+  /** The default fraction of the lifetime of a cached statement after which it is refreshed */
+  public static final double DEFAULT_REFRESH_AHEAD_FRACTION = 0.8;
+
+  /** The default random variation of the refresh ahead fraction */
+  public static final double DEFAULT_REFRESH_JITTER = 0.05;
+
+  private final EntityStatementFetcher fetcher;
+  private final BoundedCache<String, CachedStatement> cache;
+  private final Map<String, CompletableFuture<EntityStatement>> inFlight;
+  private final Duration minFailureTtl;
+  private final Duration maxFailureTtl;
+  private final Clock clock;
+
+  /** Recent failures of statement fetches and path building, keyed as the cached statements and built paths */
+  private final BoundedCache<String, FailureRecord> failures;
+
+  /**
+   * Executor used to explore authority hints concurrently and breadth-first. Default is null, which explores authority
+   * hints depth-first in the calling thread.
+   */
+  @Setter
+  private Executor discoveryExecutor;
+
+  /** The maximum number of concurrent fetches in breadth-first discovery */
+  @Setter
+  private int maxFanOut = DEFAULT_MAX_FAN_OUT;
+
+  /**
+   * Executor used to refresh cached statements ahead of their expiration. Default is null, which only fetches
+   * statements when they are not cached.
+   */
+  @Setter
+  private Executor refreshExecutor;
+
+  /**
+   * The fraction of the lifetime of a statement, from its issue time to its expiration time, after which the statement
+   * is refreshed. Default is {@link #DEFAULT_REFRESH_AHEAD_FRACTION}.
+   */
+  @Setter
+  private double refreshAheadFraction = DEFAULT_REFRESH_AHEAD_FRACTION;
+
+  /**
+   * The maximum random deviation from the refresh ahead fraction, spreading refreshes of statements fetched at the same
+   * time. Default is {@link #DEFAULT_REFRESH_JITTER}.
+   */
+  @Setter
+  private double refreshJitter = DEFAULT_REFRESH_JITTER;
+
+  /**
+   * Persistent store of fetched statements. Statements that are not cached are read from the store before they are
+   * fetched, and fetched statements are written to the store. Default is null, which disables the persistent store.
+   */
+  @Setter
+  private EntityStatementStore store;
+
+  /**
+   * Constructor using the default cache size.
+   *
+   * @param fetcher the fetcher used to fetch Entity Statements
+   */
+  public CachingFederationPathBuilder(final EntityStatementFetcher fetcher) {
+    this(fetcher, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fetcher the fetcher used to fetch Entity Statements
+   * @param maxSize the maximum number of cached statements
+   */
+  public CachingFederationPathBuilder(final EntityStatementFetcher fetcher, final int maxSize) {
+    this(fetcher, maxSize, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fetcher the fetcher used to fetch Entity Statements
+   * @param maxSize the maximum number of cached statements
+   * @param clock the clock used to determine expiration of cached statements
+   */
+  public CachingFederationPathBuilder(final EntityStatementFetcher fetcher, final int maxSize, final Clock clock) {
+    this(fetcher, maxSize, DEFAULT_MIN_FAILURE_TTL, DEFAULT_MAX_FAILURE_TTL, clock);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fetcher the fetcher used to fetch Entity Statements
+   * @param maxSize the maximum number of cached statements and failures
+   * @param minFailureTtl the time a failure is cached after the first failure, or null to not cache failures
+   * @param maxFailureTtl the maximum time a failure is cached after consecutive failures
+   * @param clock the clock used to determine expiration of cached statements and failures
+   */
+  public CachingFederationPathBuilder(final EntityStatementFetcher fetcher, final int maxSize,
+      final Duration minFailureTtl, final Duration maxFailureTtl, final Clock clock) {
+    this.fetcher = fetcher;
+    this.cache = new BoundedCache<>(maxSize, clock);
+    this.inFlight = new ConcurrentHashMap<>();
+    this.minFailureTtl = minFailureTtl;
+    this.maxFailureTtl = maxFailureTtl;
+    this.clock = clock;
+    this.failures = new BoundedCache<>(maxSize, clock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * If path building for the same entity and Trust Anchor has failed recently, the exception reports the cached
+   * failure as its cause and no statements are fetched.
+   * </p>
+   */
+  @Override
+  public List<EntityStatement> buildPath(final String entityIdentifier, final String trustAnchor,
+      final boolean trustAnchorFirst) throws PathBuildingException {
+
+    final String failureKey = key("path", entityIdentifier, trustAnchor);
+    final FailureRecord failure = this.getRecentFailure(failureKey);
+    if (failure != null) {
+      throw new PathBuildingException("Path building from " + entityIdentifier + " to Trust Anchor " + trustAnchor
+          + " failed recently, retry after " + failure.getRetryAfter(), failure.getCause());
+    }
+    try {
+      final List<EntityStatement> path = this.discoverPath(entityIdentifier, trustAnchor, trustAnchorFirst);
+      this.failures.remove(failureKey);
+      return path;
+    }
+    catch (final PathBuildingException e) {
+      this.recordFailure(failureKey, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Builds a path by fetching statements, using cached statements where available.
+   *
+   * @param entityIdentifier the identifier of the starting entity
+   * @param trustAnchor the trust anchor entity identifier
+   * @param trustAnchorFirst the value of true places the Trust Anchor first in the path, otherwise last
+   * @return the path
+   * @throws PathBuildingException if no path is found
+   */
+  private List<EntityStatement> discoverPath(final String entityIdentifier, final String trustAnchor,
+      final boolean trustAnchorFirst) throws PathBuildingException {
+
+    final EntityStatement entityConfiguration;
+    try {
+      entityConfiguration = this.getEntityConfiguration(entityIdentifier);
+    }
+    catch (final EntityStatementFetchException e) {
+      throw new PathBuildingException("Unable to fetch Entity Configuration of " + entityIdentifier, e);
+    }
+
+    final List<EntityStatement> path = new ArrayList<>();
+    path.add(entityConfiguration);
+    if (!entityIdentifier.equals(trustAnchor)) {
+      final List<EntityStatement> superiorPath;
+      if (this.discoveryExecutor != null) {
+        superiorPath = this.findShortestPath(entityConfiguration, trustAnchor);
+      }
+      else {
+        final Set<String> pathEntities = new HashSet<>();
+        pathEntities.add(entityIdentifier);
+        superiorPath = this.findPath(entityConfiguration, trustAnchor, pathEntities);
+      }
+      if (superiorPath == null) {
+        throw new PathBuildingException(
+            "No path found from " + entityIdentifier + " to Trust Anchor " + trustAnchor);
+      }
+      path.addAll(superiorPath);
+    }
+    if (trustAnchorFirst) {
+      Collections.reverse(path);
+    }
+    return path;
+  }
+
+  /**
+   * Get the Entity Configuration of an entity from the cache, or fetch it if it is not cached.
+   *
+   * @param entityIdentifier the Entity Identifier of the entity
+   * @return the Entity Configuration
+   * @throws EntityStatementFetchException if the Entity Configuration can not be fetched
+   */
+  public EntityStatement getEntityConfiguration(final String entityIdentifier)
+      throws EntityStatementFetchException {
+    return this.load(key("ec", entityIdentifier), entityIdentifier, entityIdentifier, null, () -> {
+      final EntityStatement entityConfiguration = this.fetcher.fetchEntityConfiguration(entityIdentifier);
+      if (!entityIdentifier.equals(entityConfiguration.getSubject())
+          || !entityIdentifier.equals(entityConfiguration.getIssuer())) {
+        throw new EntityStatementFetchException("Fetched statement is not the Entity Configuration of "
+            + entityIdentifier);
+      }
+      return entityConfiguration;
+    });
+  }
+
+  /**
+   * Get a Subordinate Statement issued by a superior entity from the cache, or fetch it from the fetch endpoint of the
+   * superior entity if it is not cached.
+   *
+   * @param superiorConfiguration the Entity Configuration of the superior entity
+   * @param subject the Entity Identifier of the subject of the statement
+   * @return the Subordinate Statement
+   * @throws EntityStatementFetchException if the statement can not be fetched
+   */
+  public EntityStatement getSubordinateStatement(final EntityStatement superiorConfiguration, final String subject)
+      throws EntityStatementFetchException {
+    final String fetchEndpoint = FetchSupport.getFetchEndpoint(superiorConfiguration);
+    final String cacheKey = key("fetch", fetchEndpoint, subject);
+    return this.load(cacheKey, superiorConfiguration.getSubject(), subject, superiorConfiguration, () -> {
+      final EntityStatement statement = this.fetcher.fetchSubordinateStatement(fetchEndpoint, subject);
+      if (!subject.equals(statement.getSubject())
+          || !superiorConfiguration.getSubject().equals(statement.getIssuer())) {
+        throw new EntityStatementFetchException("Fetched statement from " + fetchEndpoint
+            + " is not a Subordinate Statement about " + subject);
+      }
+      return statement;
+    });
+  }
+
+  /**
+   * Remove all cached statements and failures.
+   */
+  public void clear() {
+    this.cache.clear();
+    this.failures.clear();
+  }
+
+  /**
+   * Find a path from an entity to the Trust Anchor by following the authority hints of the entity.
+   *
+   * @param subjectConfiguration the Entity Configuration of the entity
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @param pathEntities the entities on the path below the entity, used to detect loops
+   * @return the statements from the Subordinate Statement about the entity to the Trust Anchor Entity Configuration,
+   *     or null if no path is found
+   */
+  private List<EntityStatement> findPath(final EntityStatement subjectConfiguration, final String trustAnchor,
+      final Set<String> pathEntities) {
+
+    final String subject = subjectConfiguration.getSubject();
+    final List<String> authorityHints = Optional.ofNullable(subjectConfiguration.getAuthorityHints())
+        .orElse(List.of());
+    for (final String authority : authorityHints) {
+      if (!pathEntities.add(authority)) {
+        continue;
+      }
+      try {
+        final EntityStatement authorityConfiguration = this.getEntityConfiguration(authority);
+        final EntityStatement subordinateStatement = this.getSubordinateStatement(authorityConfiguration, subject);
+        if (authority.equals(trustAnchor)) {
+          return new ArrayList<>(List.of(subordinateStatement, authorityConfiguration));
+        }
+        final List<EntityStatement> superiorPath = this.findPath(authorityConfiguration, trustAnchor, pathEntities);
+        if (superiorPath != null) {
+          superiorPath.add(0, subordinateStatement);
+          return superiorPath;
+        }
+      }
+      catch (final EntityStatementFetchException e) {
+        log.debug("Unable to follow authority hint {} of {}: {}", authority, subject, e.getMessage());
+      }
+      finally {
+        pathEntities.remove(authority);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the shortest path from an entity to the Trust Anchor by exploring authority hints breadth-first. All authority
+   * hints of the entities at one distance from the target entity are followed concurrently before any entity at a
+   * larger distance. Each entity is only reached through the first path found to it, which is one of the shortest.
+   *
+   * @param leafConfiguration the Entity Configuration of the target entity
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return the statements from the Subordinate Statement about the entity to the Trust Anchor Entity Configuration,
+   *     or null if no path is found
+   * @throws PathBuildingException on unexpected errors when following authority hints
+   */
+  private List<EntityStatement> findShortestPath(final EntityStatement leafConfiguration, final String trustAnchor)
+      throws PathBuildingException {
+
+    final Set<String> reached = new HashSet<>();
+    reached.add(leafConfiguration.getSubject());
+    final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+    List<PathNode> frontier = List.of(new PathNode(leafConfiguration, List.of(), 0));
+
+    while (!frontier.isEmpty()) {
+      final List<AuthorityHint> authorityHints = new ArrayList<>();
+      for (final PathNode node : frontier) {
+        Optional.ofNullable(node.getConfiguration().getAuthorityHints()).orElse(List.of()).stream()
+            .filter(authority -> !reached.contains(authority) && !unreachable.contains(authority))
+            .forEach(authority -> authorityHints.add(new AuthorityHint(node, authority)));
+      }
+      final List<PathNode> nextFrontier = new ArrayList<>();
+      for (int i = 0; i < authorityHints.size(); i += Math.max(1, this.maxFanOut)) {
+        final List<CompletableFuture<PathNode>> superiors = authorityHints
+            .subList(i, Math.min(authorityHints.size(), i + Math.max(1, this.maxFanOut))).stream()
+            .map(authorityHint -> CompletableFuture.supplyAsync(
+                () -> this.followAuthorityHint(authorityHint, trustAnchor, unreachable), this.discoveryExecutor))
+            .toList();
+        for (final CompletableFuture<PathNode> future : superiors) {
+          final PathNode superior;
+          try {
+            superior = future.join();
+          }
+          catch (final CompletionException e) {
+            throw new PathBuildingException("Error following authority hints", e.getCause());
+          }
+          if (superior == null || !reached.add(superior.getEntityId())) {
+            continue;
+          }
+          if (superior.getEntityId().equals(trustAnchor)) {
+            final List<EntityStatement> path = new ArrayList<>(superior.getStatements());
+            path.add(superior.getConfiguration());
+            return path;
+          }
+          nextFrontier.add(superior);
+        }
+      }
+      frontier = nextFrontier;
+    }
+    return null;
+  }
+
+  /**
+   * Follow an authority hint by fetching the Entity Configuration of the superior entity and its Subordinate Statement
+   * about the subordinate entity.
+   *
+   * @param authorityHint the authority hint to follow
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @param unreachable Entity Identifiers of entities that could not be fetched
+   * @return the node of the superior entity, or null if the branch is pruned
+   */
+  private PathNode followAuthorityHint(final AuthorityHint authorityHint, final String trustAnchor,
+      final Set<String> unreachable) {
+
+    final String authority = authorityHint.getAuthority();
+    final PathNode subordinate = authorityHint.getSubordinate();
+    final EntityStatement authorityConfiguration;
+    try {
+      authorityConfiguration = this.getEntityConfiguration(authority);
+    }
+    catch (final EntityStatementFetchException e) {
+      log.debug("Unable to fetch Entity Configuration of {}: {}", authority, e.getMessage());
+      unreachable.add(authority);
+      return null;
+    }
+    if (!authority.equals(trustAnchor) && Optional.ofNullable(authorityConfiguration.getAuthorityHints())
+        .map(List::isEmpty)
+        .orElse(true)) {
+      log.debug("Authority {} is not the requested Trust Anchor and has no authority hints", authority);
+      return null;
+    }
+    final EntityStatement subordinateStatement;
+    try {
+      subordinateStatement = this.getSubordinateStatement(authorityConfiguration, subordinate.getEntityId());
+    }
+    catch (final EntityStatementFetchException e) {
+      log.debug("Unable to follow authority hint {} of {}: {}", authority, subordinate.getEntityId(),
+          e.getMessage());
+      return null;
+    }
+    // The depth of an entity is the number of Intermediate Entities between the entity and the target entity,
+    // including the entity itself, which is the number of intermediates restricted by max_path_length
+    if (exceedsMaxPathLength(subordinateStatement, subordinate.getDepth())
+        || authority.equals(trustAnchor) && exceedsMaxPathLength(authorityConfiguration, subordinate.getDepth() + 1)) {
+      log.debug("Path from {} through {} exceeds max path length", subordinate.getEntityId(), authority);
+      return null;
+    }
+    final List<EntityStatement> statements = new ArrayList<>(subordinate.getStatements());
+    statements.add(subordinateStatement);
+    return new PathNode(authorityConfiguration, statements, subordinate.getDepth() + 1);
+  }
+
+  private static boolean exceedsMaxPathLength(final EntityStatement statement, final int depth) {
+    return Optional.ofNullable(statement.getConstraints())
+        .map(ConstraintsClaim::getMaxPathLength)
+        .map(maxPathLength -> depth > maxPathLength)
+        .orElse(false);
+  }
+
+  /**
+   * Get a statement from the cache, or load it if it is not cached. If another thread is already loading the same
+   * statement, the result of that load is awaited and returned instead of loading the statement again.
+   *
+   * @param key the cache key of the statement
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   * @param issuerConfiguration the Entity Configuration of the issuer used to verify a refreshed statement, or null to
+   *     verify a refreshed Entity Configuration with the keys of the cached copy
+   * @param loader the loader used to fetch the statement
+   * @return the statement
+   * @throws EntityStatementFetchException if the statement can not be loaded
+   */
+  private EntityStatement load(final String key, final String issuer, final String subject,
+      final EntityStatement issuerConfiguration, final StatementLoader loader) throws EntityStatementFetchException {
+    final CachedStatement cached = this.cache.get(key);
+    if (cached != null) {
+      this.refreshIfDue(key, cached, issuerConfiguration, loader);
+      return cached.getStatement();
+    }
+    final FailureRecord failure = this.getRecentFailure(key);
+    if (failure != null) {
+      throw new EntityStatementFetchException("Fetch failed recently, retry after " + failure.getRetryAfter(),
+          failure.getCause());
+    }
+    final CompletableFuture<EntityStatement> future = new CompletableFuture<>();
+    final CompletableFuture<EntityStatement> loading = this.inFlight.putIfAbsent(key, future);
+    if (loading != null) {
+      return await(loading);
+    }
+    try {
+      // A load that completed after the cache lookup above has stored its result in the cache
+      final CachedStatement recent = this.cache.get(key);
+      final EntityStatement statement = recent != null
+          ? recent.getStatement()
+          : this.restoreOrFetch(key, issuer, subject, loader);
+      future.complete(statement);
+      return statement;
+    }
+    catch (final EntityStatementFetchException e) {
+      this.recordFailure(key, e);
+      future.completeExceptionally(e);
+      throw e;
+    }
+    catch (final RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      this.inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Get a statement from the persistent store, or fetch it if it is not stored, and store it in the cache.
+   *
+   * @param key the cache key of the statement
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   * @param loader the loader used to fetch the statement
+   * @return the statement
+   * @throws EntityStatementFetchException if the statement is not stored and can not be fetched
+   */
+  private EntityStatement restoreOrFetch(final String key, final String issuer, final String subject,
+      final StatementLoader loader) throws EntityStatementFetchException {
+    final EntityStatement stored = this.store == null ? null : this.store.get(issuer, subject);
+    if (stored == null) {
+      return this.fetch(key, loader);
+    }
+    if (!issuer.equals(stored.getIssuer()) || !subject.equals(stored.getSubject())) {
+      log.warn("Store returned a statement issued by {} about {} for {}, fetching it instead", stored.getIssuer(),
+          stored.getSubject(), key);
+      return this.fetch(key, loader);
+    }
+    this.cache(key, stored);
+    this.failures.remove(key);
+    return stored;
+  }
+
+  /**
+   * Fetch a statement and store it in the cache and in the persistent store.
+   *
+   * @param key the cache key of the statement
+   * @param loader the loader used to fetch the statement
+   * @return the fetched statement
+   * @throws EntityStatementFetchException if the statement can not be fetched
+   */
+  private EntityStatement fetch(final String key, final StatementLoader loader) throws EntityStatementFetchException {
+    return this.update(key, loader.load());
+  }
+
+  /**
+   * Store a fetched statement in the cache and in the persistent store.
+   *
+   * @param key the cache key of the statement
+   * @param statement the fetched statement
+   * @return the statement
+   */
+  private EntityStatement update(final String key, final EntityStatement statement) {
+    this.cache(key, statement);
+    this.failures.remove(key);
+    if (this.store != null) {
+      this.store.put(statement);
+    }
+    return statement;
+  }
+
+  /**
+   * Store a statement in the cache until it expires.
+   *
+   * @param key the cache key of the statement
+   * @param statement the statement
+   */
+  private void cache(final String key, final EntityStatement statement) {
+    final Instant expirationTime = Optional.ofNullable(statement.getExpirationTime())
+        .map(Date::toInstant)
+        .orElse(null);
+    this.cache.put(key, new CachedStatement(statement, this.getRefreshTime(statement)), expirationTime);
+  }
+
+  /**
+   * Start a background refresh of a cached statement if its refresh time has passed. No refresh is started if the
+   * statement is already being loaded. Requests for the statement that find the cached copy expired before the refresh
+   * has completed wait for the refresh.
+   *
+   * @param key the cache key of the statement
+   * @param cached the cached statement
+   * @param issuerConfiguration the Entity Configuration of the issuer of the statement, or null for an Entity
+   *     Configuration
+   * @param loader the loader used to fetch the statement
+   */
+  private void refreshIfDue(final String key, final CachedStatement cached, final EntityStatement issuerConfiguration,
+      final StatementLoader loader) {
+    final Instant refreshTime = cached.getRefreshTime();
+    if (this.refreshExecutor == null || refreshTime == null || this.clock.instant().isBefore(refreshTime)) {
+      return;
+    }
+    final CompletableFuture<EntityStatement> future = new CompletableFuture<>();
+    if (this.inFlight.putIfAbsent(key, future) != null) {
+      return;
+    }
+    try {
+      this.refreshExecutor.execute(() -> {
+        try {
+          future.complete(this.refresh(key, cached, issuerConfiguration, loader));
+        }
+        catch (final EntityStatementFetchException | RuntimeException e) {
+          log.debug("Background refresh of {} failed: {}", key, e.getMessage());
+          // Keep serving the cached copy, and retry halfway to its expiration
+          cached.postponeRefresh(this.clock.instant(), this.minFailureTtl);
+          future.completeExceptionally(e);
+        }
+        finally {
+          this.inFlight.remove(key, future);
+        }
+      });
+    }
+    catch (final RuntimeException e) {
+      log.debug("Background refresh of {} was rejected: {}", key, e.getMessage());
+      future.complete(cached.getStatement());
+      this.inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Fetch a cached statement again. If the fetched statement has the same expiration time as the cached statement, the
+   * statement has not been reissued. The cached statement is then kept, and the next refresh is postponed, so that a
+   * statement reissued later in its lifetime is still fetched before the cached statement expires. A reissued
+   * statement only replaces the cached statement if its signature is valid.
+   *
+   * @param key the cache key of the statement
+   * @param cached the cached statement
+   * @param issuerConfiguration the Entity Configuration of the issuer of the statement, or null for an Entity
+   *     Configuration
+   * @param loader the loader used to fetch the statement
+   * @return the refreshed statement
+   * @throws EntityStatementFetchException if the statement can not be fetched or its signature is not valid
+   */
+  private EntityStatement refresh(final String key, final CachedStatement cached,
+      final EntityStatement issuerConfiguration, final StatementLoader loader) throws EntityStatementFetchException {
+    final EntityStatement statement = loader.load();
+    if (Objects.equals(statement.getExpirationTime(), cached.getStatement().getExpirationTime())) {
+      log.debug("Refreshed statement {} has not been reissued, postponing next refresh", key);
+      cached.postponeRefresh(this.clock.instant(), this.minFailureTtl);
+      this.failures.remove(key);
+      return cached.getStatement();
+    }
+    verifySignature(statement, issuerConfiguration != null ? issuerConfiguration : cached.getStatement());
+    return this.update(key, statement);
+  }
+
+  /**
+   * Verify the signature of a refreshed statement.
+   *
+   * @param statement the refreshed statement
+   * @param keyStatement the statement holding the keys that are trusted to sign the refreshed statement
+   * @throws EntityStatementFetchException if the signature is not valid
+   */
+  private static void verifySignature(final EntityStatement statement, final EntityStatement keyStatement)
+      throws EntityStatementFetchException {
+    try {
+      if (!OidcUtils.verifySignedJWT(statement.getSignedJWT(), keyStatement.getJwkSet())) {
+        throw new EntityStatementFetchException("Signature of refreshed statement issued by " + statement.getIssuer()
+            + " about " + statement.getSubject() + " is not valid");
+      }
+    }
+    catch (final JOSEException | ParseException e) {
+      throw new EntityStatementFetchException("Unable to verify refreshed statement issued by "
+          + statement.getIssuer() + " about " + statement.getSubject(), e);
+    }
+  }
+
+  /**
+   * Get the time when a statement should be refreshed, at the refresh ahead fraction of its lifetime from its issue
+   * time to its expiration time.
+   *
+   * @param statement the statement
+   * @return the refresh time, or null if the statement is not refreshed
+   */
+  private Instant getRefreshTime(final EntityStatement statement) {
+    if (statement.getExpirationTime() == null) {
+      return null;
+    }
+    final long issueTime = Optional.ofNullable(statement.getIssueTime())
+        .map(Date::getTime)
+        .orElseGet(this.clock::millis);
+    final long lifetimeMillis = statement.getExpirationTime().getTime() - issueTime;
+    if (lifetimeMillis <= 0) {
+      return null;
+    }
+    final double jitter = this.refreshJitter > 0
+        ? ThreadLocalRandom.current().nextDouble(-this.refreshJitter, this.refreshJitter)
+        : 0;
+    final double fraction = Math.min(1, Math.max(0, this.refreshAheadFraction + jitter));
+    return Instant.ofEpochMilli(issueTime + (long) (lifetimeMillis * fraction));
+  }
+
+  /**
+   * Get a cached failure that has not passed its retry time.
+   *
+   * @param key the failure key
+   * @return the failure or null if there is no recent failure
+   */
+  private FailureRecord getRecentFailure(final String key) {
+    final FailureRecord failure = this.failures.get(key);
+    return failure != null && this.clock.instant().isBefore(failure.getRetryAfter())
+        ? failure
+        : null;
+  }
+
+  /**
+   * Record a failure. The retry time is doubled for each consecutive failure, as long as the previous failure is still
+   * cached. A failure is kept in the cache until twice its time to live has passed, so that a failure shortly after
+   * a retry is counted as consecutive.
+   *
+   * @param key the failure key
+   * @param cause the exception reporting the failure
+   */
+  private void recordFailure(final String key, final Exception cause) {
+    if (this.minFailureTtl == null) {
+      return;
+    }
+    final FailureRecord previous = this.failures.get(key);
+    final int failureCount = previous == null ? 1 : previous.getFailureCount() + 1;
+    Duration ttl = this.minFailureTtl;
+    for (int i = 1; i < failureCount && ttl.compareTo(this.maxFailureTtl) < 0; i++) {
+      ttl = ttl.multipliedBy(2);
+    }
+    if (ttl.compareTo(this.maxFailureTtl) > 0) {
+      ttl = this.maxFailureTtl;
+    }
+    final Instant retryAfter = this.clock.instant().plus(ttl);
+    this.failures.put(key, new FailureRecord(cause, failureCount, retryAfter), retryAfter.plus(ttl));
+  }
+
+  /**
+   * Get the key of a cached statement, path or failure. Each identifier is prefixed with its length, so that
+   * identifiers containing the separator can not give two different statements or paths the same key.
+   *
+   * @param type the type of the cached item
+   * @param identifiers the identifiers of the cached item
+   * @return the key
+   */
+  private static String key(final String type, final String... identifiers) {
+    final StringBuilder key = new StringBuilder(type);
+    for (final String identifier : identifiers) {
+      key.append('|');
+      if (identifier != null) {
+        key.append(identifier.length()).append(':').append(identifier);
+      }
+    }
+    return key.toString();
+  }
+
+  private static EntityStatement await(final CompletableFuture<EntityStatement> loading)
+      throws EntityStatementFetchException {
+    try {
+      return loading.join();
+    }
+    catch (final CompletionException e) {
+      if (e.getCause() instanceof final EntityStatementFetchException fetchException) {
+        throw fetchException;
+      }
+      throw new EntityStatementFetchException("Entity Statement fetch failed", e.getCause());
+    }
+  }
+
+  /**
+   * An entity reached in breadth-first discovery.
+   */
+  @Getter
+  private static class PathNode {
+
+    /** The Entity Identifier of the entity */
+    private final String entityId;
+
+    /** The Entity Configuration of the entity */
+    private final EntityStatement configuration;
+
+    /** The Subordinate Statements from the statement about the target entity to the statement about this entity */
+    private final List<EntityStatement> statements;
+
+    /** The number of entities between this entity and the target entity, including this entity */
+    private final int depth;
+
+    PathNode(final EntityStatement configuration, final List<EntityStatement> statements, final int depth) {
+      this.entityId = configuration.getSubject();
+      this.configuration = configuration;
+      this.statements = statements;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * An authority hint of a reached entity that is yet to be followed.
+   */
+  @Getter
+  @AllArgsConstructor
+  private static class AuthorityHint {
+
+    /** The entity listing the authority hint */
+    private final PathNode subordinate;
+
+    /** The Entity Identifier of the superior entity */
+    private final String authority;
+  }
+
+  /**
+   * A cached statement with the time when it should be refreshed.
+   */
+  private static class CachedStatement {
+
+    /** The cached statement */
+    @Getter
+    private final EntityStatement statement;
+
+    /** The time after which the statement is refreshed on request, or null if it is never refreshed */
+    @Getter
+    private volatile Instant refreshTime;
+
+    CachedStatement(final EntityStatement statement, final Instant refreshTime) {
+      this.statement = statement;
+      this.refreshTime = refreshTime;
+    }
+
+    /**
+     * Postpone the refresh of this statement to halfway between now and its expiration time, but at least a minimum
+     * delay from now, after a failed refresh or a refresh that found the statement not reissued.
+     *
+     * @param now the current time
+     * @param minDelay the minimum delay before the next refresh, or null to use
+     *     {@link CachingFederationPathBuilder#DEFAULT_MIN_FAILURE_TTL}
+     */
+    void postponeRefresh(final Instant now, final Duration minDelay) {
+      final long minDelayMillis = Optional.ofNullable(minDelay).orElse(DEFAULT_MIN_FAILURE_TTL).toMillis();
+      this.refreshTime = Optional.ofNullable(this.statement.getExpirationTime())
+          .map(expirationTime -> now.plusMillis(
+              Math.max(minDelayMillis, (expirationTime.getTime() - now.toEpochMilli()) / 2)))
+          .orElse(null);
+    }
+  }
+
+  /**
+   * A cached failure.
+   */
+  @Getter
+  @AllArgsConstructor
+  private static class FailureRecord {
+
+    /** The exception reporting the failure */
+    private final Exception cause;
+
+    /** The number of consecutive failures */
+    private final int failureCount;
+
+    /** The time when the failed operation may be retried */
+    private final Instant retryAfter;
+  }
+
+}
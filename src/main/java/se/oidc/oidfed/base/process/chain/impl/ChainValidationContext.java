@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import com.nimbusds.jose.jwk.JWK;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.security.SignatureVerificationCache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * State of a single chain validation in {@link DefaultFederationChainValidator}.
+ *
+ * <p>
+ * The context holds the ordered chain and records the signature verification outcome of each statement. Validation
+ * steps that need to know if a statement is signed by its own key, or which key signed it, read this information from
+ * the context instead of verifying signatures again.
+ * </p>
+ */
+class ChainValidationContext {
+
+  /** The chain ordered from Trust Anchor Entity Configuration to target Entity Configuration */
+  @Getter
+  private final List<EntityStatement> chain;
+
+  /** Cache of verified signatures used for this validation, or null if signatures are not cached */
+  @Getter
+  private final SignatureVerificationCache signatureVerificationCache;
+
+  /** The entity types of the leaf entity that have non-empty metadata */
+  @Getter
+  private final List<String> leafEntityTypes;
+
+  private final StatementVerification[] verifications;
+
+  /**
+   * Constructor
+   *
+   * @param chain the chain ordered from Trust Anchor Entity Configuration to target Entity Configuration
+   * @param signatureVerificationCache cache of verified signatures or null to verify all signatures
+   */
+  ChainValidationContext(final List<EntityStatement> chain,
+      final SignatureVerificationCache signatureVerificationCache) {
+    this.chain = chain;
+    this.signatureVerificationCache = signatureVerificationCache;
+    this.verifications = new StatementVerification[chain.size()];
+    this.leafEntityTypes = Optional.ofNullable(this.getLeafStatement().getMetadata())
+        .map(EntityMetadataInfoClaim::getClaimObjects)
+        .map(claimObjects -> claimObjects.entrySet().stream()
+            .filter(entry -> entry.getValue() != null && !entry.getValue().isEmpty())
+            .map(Map.Entry::getKey)
+            .toList())
+        .orElse(List.of());
+  }
+
+  /**
+   * Get the statement at a position in the ordered chain.
+   *
+   * @param index the position in the chain
+   * @return the statement at the position
+   */
+  EntityStatement getStatement(final int index) {
+    return this.chain.get(index);
+  }
+
+  /**
+   * Get the leaf statement of the chain.
+   *
+   * @return the last statement of the ordered chain
+   */
+  EntityStatement getLeafStatement() {
+    return this.chain.get(this.chain.size() - 1);
+  }
+
+  /**
+   * Record the successful signature verification of a statement.
+   *
+   * @param index the position of the statement in the chain
+   * @param verification the verification outcome
+   */
+  void setVerification(final int index, final StatementVerification verification) {
+    this.verifications[index] = verification;
+  }
+
+  /**
+   * Get the signature verification outcome of a statement.
+   *
+   * @param index the position of the statement in the chain
+   * @return the verification outcome
+   * @throws IllegalStateException if the signature of the statement has not been verified
+   */
+  StatementVerification getVerification(final int index) {
+    final StatementVerification verification = this.verifications[index];
+    if (verification == null) {
+      throw new IllegalStateException("Statement signature at position " + index + " has not been verified");
+    }
+    return verification;
+  }
+
+  /**
+   * Check if the leaf statement is an Entity Configuration, based on its issuer and subject only. This check does not
+   * require the signature of the leaf statement to be verified.
+   *
+   * @return true if the issuer of the leaf statement is the same as its subject
+   */
+  boolean isLeafEntityConfiguration() {
+    final EntityStatement leafStatement = this.getLeafStatement();
+    return leafStatement.getSubject().equals(leafStatement.getIssuer());
+  }
+
+  /**
+   * Check if the leaf statement is a self-signed Entity Configuration.
+   *
+   * @return true if the leaf statement is signed by a key in its own JWK set
+   */
+  boolean isLeafSelfSigned() {
+    return this.getVerification(this.chain.size() - 1).isSelfSigned();
+  }
+
+  /**
+   * The outcome of a successful signature verification of a statement in the chain. Failed verifications end the
+   * validation and are not recorded.
+   */
+  @Getter
+  @AllArgsConstructor
+  static class StatementVerification {
+
+    /** True if the statement is an Entity Configuration signed by a key in its own JWK set */
+    private final boolean selfSigned;
+
+    /** The key that verified the signature */
+    private final JWK verifyingKey;
+  }
+
+}
@@ -17,34 +17,58 @@ package se.oidc.oidfed.base.process.chain.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import jakarta.annotation.Nonnull;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import se.oidc.oidfed.base.data.federation.ConstraintsClaim;
 import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
 import se.oidc.oidfed.base.data.federation.EntityStatement;
-import se.oidc.oidfed.base.data.federation.NamingConstraints;
+import se.oidc.oidfed.base.data.federation.NamingConstraintsMatcher;
 import se.oidc.oidfed.base.data.federation.TrustMarkClaim;
 import se.oidc.oidfed.base.data.metadata.policy.EntityTypeMetadataPolicy;
 import se.oidc.oidfed.base.data.metadata.policy.MetadataParameterPolicy;
 import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationFailureReason;
+import se.oidc.oidfed.base.process.chain.ChainValidationListener;
+import se.oidc.oidfed.base.process.chain.ChainValidationOutcome;
 import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.process.chain.ChainValidationStage;
 import se.oidc.oidfed.base.process.chain.FederationChainValidator;
 import se.oidc.oidfed.base.process.metadata.MetadataPolicyProcessor;
 import se.oidc.oidfed.base.process.metadata.MetadataPolicySerializer;
 import se.oidc.oidfed.base.process.metadata.PolicyMergeException;
 import se.oidc.oidfed.base.process.metadata.PolicyProcessingException;
 import se.oidc.oidfed.base.process.metadata.PolicyTranslationException;
+import se.oidc.oidfed.base.security.SignatureVerificationCache;
+import se.oidc.oidfed.base.security.TrustAnchorRegistry;
+import se.oidc.oidfed.base.utils.BoundedCache;
 import se.oidc.oidfed.base.utils.OidcUtils;
 
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 /**
  * Entity Statement chain validation implementation
@@ -59,40 +83,370 @@ import java.util.Optional;
  * Also. No attempt to compare constraints is made. Instead. All constraints are individually processed against their
  * respective sub-path.
  * </p>
+ * <p>
+ * Validation is performed in the stages defined by {@link ChainValidationStage}. Structure, validity time, critical
+ * claims and constraints are checked before any signature is verified. A failed validation is reported with the stage
+ * where it failed.
+ * </p>
  */
 @Slf4j
 public class DefaultFederationChainValidator implements FederationChainValidator {
 
+  /** The maximum number of cached merged metadata policies */
+  public static final int MERGED_POLICY_CACHE_MAX_SIZE = 1000;
+
+  /** Keys trusted for any Trust Anchor, or null if Trust Anchors are selected from the registry */
   private final JWKSet trustedKeys;
+
+  /** Registry of trusted Trust Anchors, or null if all Trust Anchors are trusted by the trusted keys */
+  private final TrustAnchorRegistry trustAnchorRegistry;
+
   private final MetadataPolicySerializer metadataPolicySerializer;
   private final MetadataPolicyProcessor metadataPolicyProcessor;
+  private final SignatureVerificationCache signatureVerificationCache;
+
+  /** Merged metadata policies of chain prefixes, keyed by prefix statement digests and entity type */
+  private final BoundedCache<String, EntityTypeMetadataPolicy> mergedPolicyCache;
+
+  /**
+   * Strict key selection requires that each Entity Statement identifies its signing key with a kid header parameter,
+   * and only the key with that kid is used to verify the signature. Default is false, which tries the key with
+   * matching kid first and then falls back to other keys compatible with the signature algorithm.
+   */
+  @Setter
+  private boolean strictKeySelection = false;
+
+  /**
+   * Caching of merged metadata policies of chain prefixes. Default is true. Turning caching off merges all metadata
+   * policies of the chain in every validation, which is mainly useful to measure the cost of policy merging.
+   */
+  @Setter
+  private boolean mergedPolicyCaching = true;
+
+  /**
+   * Executor used by {@link #validateAll(Collection)} to validate chains. Default runs all validations in the calling
+   * thread. Chains whose validation task is rejected by the executor get a failed outcome.
+   */
+  @Setter
+  private Executor batchExecutor = Runnable::run;
+
+  /**
+   * Executor used to verify the signatures of the statements of a chain concurrently. Default is null, which verifies
+   * the signatures one by one in the validating thread. Chains validated by {@link #validateAll(Collection)} on a
+   * batch executor thread have their signatures verified in that thread, so that a bounded pool used as both batch
+   * and signature executor can not be exhausted by batch tasks waiting for their own signature tasks.
+   */
+  @Setter
+  private Executor signatureExecutor;
+
+  /** Listener receiving instrumentation events, never null */
+  private ChainValidationListener listener = ChainValidationListener.NOOP;
 
   private final List<String> supportedCriticalClaims =
       List.of(EntityStatement.SUBJECT_ENTITY_CONFIGURATION_LOCATION_CLAIM_NAME);
 
+  /**
+   * Constructor creating a validator with its own cache of verified signatures.
+   *
+   * @param trustedKeys the keys trusted to verify Trust Anchor entity configuration statements
+   * @param metadataPolicySerializer serializer for parsing metadata policy data
+   */
+  public DefaultFederationChainValidator(final JWKSet trustedKeys,
+      final MetadataPolicySerializer metadataPolicySerializer) {
+    this(trustedKeys, metadataPolicySerializer, new SignatureVerificationCache());
+  }
+
   /**
    * Constructor
    *
+   * <p>
+   * Successful signature verifications are stored in the provided cache and reused by later chain validations, until
+   * the verified Entity Statement expires. This saves the cost of repeatedly verifying statements that are shared by
+   * many chains, such as the Trust Anchor Entity Configuration and Intermediate Entity Statements. The cache may be
+   * shared between several validators.
+   * </p>
+   *
    * @param trustedKeys the keys trusted to verify Trust Anchor entity configuration statements
    * @param metadataPolicySerializer serializer for parsing metadata policy data
+   * @param signatureVerificationCache cache of verified signatures or null to verify all signatures every time
    */
   public DefaultFederationChainValidator(final JWKSet trustedKeys,
+      final MetadataPolicySerializer metadataPolicySerializer,
+      final SignatureVerificationCache signatureVerificationCache) {
+    this(Objects.requireNonNull(trustedKeys, "trustedKeys must not be null"), null, metadataPolicySerializer,
+        signatureVerificationCache);
+  }
+
+  /**
+   * Constructor creating a validator with its own cache of verified signatures, that validates chains to any of the
+   * Trust Anchors of a registry.
+   *
+   * @param trustAnchorRegistry registry of trusted Trust Anchors
+   * @param metadataPolicySerializer serializer for parsing metadata policy data
+   */
+  public DefaultFederationChainValidator(final TrustAnchorRegistry trustAnchorRegistry,
       final MetadataPolicySerializer metadataPolicySerializer) {
+    this(trustAnchorRegistry, metadataPolicySerializer, new SignatureVerificationCache());
+  }
+
+  /**
+   * Constructor for a validator that validates chains to any of the Trust Anchors of a registry.
+   *
+   * <p>
+   * The Trust Anchor of a chain is selected by the issuer of its Trust Anchor Entity Configuration, and its signature
+   * is verified only with the keys registered for that Trust Anchor. Keys updated in the registry are used by all later
+   * validations.
+   * </p>
+   *
+   * @param trustAnchorRegistry registry of trusted Trust Anchors
+   * @param metadataPolicySerializer serializer for parsing metadata policy data
+   * @param signatureVerificationCache cache of verified signatures or null to verify all signatures every time
+   */
+  public DefaultFederationChainValidator(final TrustAnchorRegistry trustAnchorRegistry,
+      final MetadataPolicySerializer metadataPolicySerializer,
+      final SignatureVerificationCache signatureVerificationCache) {
+    this(null, Objects.requireNonNull(trustAnchorRegistry, "trustAnchorRegistry must not be null"),
+        metadataPolicySerializer, signatureVerificationCache);
+  }
+
+  private DefaultFederationChainValidator(final JWKSet trustedKeys, final TrustAnchorRegistry trustAnchorRegistry,
+      final MetadataPolicySerializer metadataPolicySerializer,
+      final SignatureVerificationCache signatureVerificationCache) {
     this.trustedKeys = trustedKeys;
+    this.trustAnchorRegistry = trustAnchorRegistry;
     this.metadataPolicySerializer = metadataPolicySerializer;
     this.metadataPolicyProcessor = new MetadataPolicyProcessor();
+    this.signatureVerificationCache = signatureVerificationCache;
+    this.mergedPolicyCache = new BoundedCache<>(MERGED_POLICY_CACHE_MAX_SIZE);
+  }
+
+  /**
+   * Set the listener receiving instrumentation events from this validator. Default is
+   * {@link ChainValidationListener#NOOP}, which disables all instrumentation.
+   *
+   * @param listener the listener, or null to disable instrumentation
+   */
+  public void setListener(final ChainValidationListener listener) {
+    this.listener = Optional.ofNullable(listener).orElse(ChainValidationListener.NOOP);
   }
 
   /** {@inheritDoc} */
   @Override
   public ChainValidationResult validate(@Nonnull final List<EntityStatement> unorderedChain)
       throws ChainValidationException {
+    final long start = this.startTimer();
+    try {
+      final List<EntityStatement> chain = this.orderChain(unorderedChain);
+      this.stageCompleted(ChainValidationStage.STRUCTURE, start);
+      final ChainValidationResult result =
+          this.validateOrderedChain(chain, this.signatureVerificationCache, this.signatureExecutor);
+      this.chainValidated(chain.size(), start);
+      return result;
+    }
+    catch (final ChainValidationException e) {
+      this.listener.chainValidationFailed(unorderedChain.size(), e.getStage(), e.getReason(), e);
+      throw e;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Chains are grouped by the statements they share from the Trust Anchor down to the superior of the leaf entity.
+   * Statements shared by more than one group, such as the Trust Anchor Entity Configuration, are verified once before
+   * any chain is validated. One chain of each group is then validated, which verifies the remaining statements of the
+   * group and merges their metadata policies once. The remaining chains are finally validated using the cached
+   * results. If this validator has no signature verification cache, a cache is created for the duration of this call.
+   * </p>
+   * <p>
+   * Chains are validated using the executor set by {@link #setBatchExecutor(Executor)}. By default, all chains are
+   * validated in the calling thread. Chains validated on another thread have their signatures verified in that thread
+   * rather than on the signature executor.
+   * </p>
+   */
+  @Override
+  public List<ChainValidationOutcome> validateAll(@Nonnull final Collection<List<EntityStatement>> chains) {
+
+    final List<List<EntityStatement>> unorderedChains = new ArrayList<>(chains);
+    final ChainValidationOutcome[] outcomes = new ChainValidationOutcome[unorderedChains.size()];
+    final SignatureVerificationCache verificationCache = Optional.ofNullable(this.signatureVerificationCache)
+        .orElseGet(SignatureVerificationCache::new);
 
-    final List<EntityStatement> chain = this.orderChain(unorderedChain);
+    // Order the chains and group them by shared chain prefix
+    final List<List<EntityStatement>> orderedChains = new ArrayList<>(unorderedChains.size());
+    final Map<String, List<Integer>> prefixGroups = new LinkedHashMap<>();
+    for (int i = 0; i < unorderedChains.size(); i++) {
+      final long start = this.startTimer();
+      try {
+        final List<EntityStatement> chain = this.orderChain(unorderedChains.get(i));
+        this.stageCompleted(ChainValidationStage.STRUCTURE, start);
+        orderedChains.add(chain);
+        final String prefixKey = this.getPolicyPrefixKey(chain.subList(0, chain.size() - 2));
+        prefixGroups.computeIfAbsent(prefixKey == null ? "#" + i : prefixKey, key -> new ArrayList<>()).add(i);
+      }
+      catch (final ChainValidationException e) {
+        orderedChains.add(null);
+        outcomes[i] = ChainValidationOutcome.failure(e);
+        this.listener.chainValidationFailed(unorderedChains.get(i).size(), e.getStage(), e.getReason(), e);
+      }
+    }
+    log.debug("Validating {} chains in {} groups with shared chain prefix", unorderedChains.size(),
+        prefixGroups.size());
+
+    final Thread callingThread = Thread.currentThread();
+    final IntConsumer validateChain = index -> {
+      final List<EntityStatement> chain = orderedChains.get(index);
+      // Signature tasks of a batch task running on an executor thread could wait for a thread of the same pool
+      final Executor chainSignatureExecutor =
+          Thread.currentThread() == callingThread ? this.signatureExecutor : null;
+      final long start = this.startTimer();
+      try {
+        outcomes[index] = ChainValidationOutcome.success(
+            this.validateOrderedChain(chain, verificationCache, chainSignatureExecutor));
+        this.chainValidated(chain.size(), start);
+      }
+      catch (final ChainValidationException e) {
+        outcomes[index] = ChainValidationOutcome.failure(e);
+        this.listener.chainValidationFailed(chain.size(), e.getStage(), e.getReason(), e);
+      }
+      catch (final RuntimeException e) {
+        final ChainValidationException exception = new ChainValidationException(
+            ChainValidationFailureReason.UNEXPECTED_ERROR, "Unexpected error validating chain", e);
+        outcomes[index] = ChainValidationOutcome.failure(exception);
+        this.listener.chainValidationFailed(chain.size(), exception.getStage(), exception.getReason(), exception);
+      }
+    };
+    final IntConsumer rejectChain = index -> {
+      final ChainValidationException exception = new ChainValidationException(
+          ChainValidationFailureReason.EXECUTION_REJECTED, "Chain validation was rejected by the batch executor");
+      outcomes[index] = ChainValidationOutcome.failure(exception);
+      this.listener.chainValidationFailed(orderedChains.get(index).size(), exception.getStage(), exception.getReason(),
+          exception);
+    };
+    // Verify the statements shared between groups once, before the groups are validated concurrently
+    final List<StatementPosition> sharedStatements = this.getSharedStatements(prefixGroups.values().stream()
+        .map(group -> orderedChains.get(group.get(0)))
+        .toList());
+    this.runBatch(IntStream.range(0, sharedStatements.size()).boxed().toList(),
+        index -> this.preverifyStatement(sharedStatements.get(index), verificationCache), index -> {
+        });
+    // Validate one chain of each group to populate the caches for the statements of the group
+    this.runBatch(prefixGroups.values().stream()
+        .map(group -> group.get(0))
+        .toList(), validateChain, rejectChain);
+    // Validate the remaining chains
+    this.runBatch(prefixGroups.values().stream()
+        .flatMap(group -> group.stream().skip(1))
+        .toList(), validateChain, rejectChain);
+
+    return Arrays.asList(outcomes);
+  }
+
+  /**
+   * Gets the statements that are part of the chain prefix of more than one chain. A statement is only considered shared
+   * if it is verified using the keys of the same superior statement.
+   *
+   * @param chains one ordered chain of each prefix group
+   * @return the position of each shared statement in the first chain that includes it
+   */
+  private List<StatementPosition> getSharedStatements(final List<List<EntityStatement>> chains) {
+    final Map<String, StatementPosition> firstPositions = new HashMap<>();
+    final Map<String, StatementPosition> sharedStatements = new LinkedHashMap<>();
+    try {
+      for (final List<EntityStatement> chain : chains) {
+        for (int i = 0; i < chain.size() - 2; i++) {
+          final String key = SignatureVerificationCache.getJwsDigest(chain.get(i).getSignedJWT()) + "."
+              + (i == 0 ? "" : SignatureVerificationCache.getJwsDigest(chain.get(i - 1).getSignedJWT()));
+          final StatementPosition firstPosition = firstPositions.putIfAbsent(key, new StatementPosition(chain, i));
+          if (firstPosition != null) {
+            sharedStatements.putIfAbsent(key, firstPosition);
+          }
+        }
+      }
+    }
+    catch (final JOSEException e) {
+      log.debug("Unable to calculate statement key, shared statements are verified by each chain", e);
+      return List.of();
+    }
+    return new ArrayList<>(sharedStatements.values());
+  }
+
+  /**
+   * Verifies the signature of a statement shared by several chains to populate the verification cache. Errors are
+   * ignored here, they are reported when the chains including the statement are validated.
+   *
+   * @param position the position of the statement in a chain
+   * @param verificationCache the verification cache to populate
+   */
+  private void preverifyStatement(final StatementPosition position,
+      final SignatureVerificationCache verificationCache) {
+    final EntityStatement entityStatement = position.chain().get(position.index());
+    try {
+      if (position.index() == 0) {
+        this.verifyEntityStatementSignature(entityStatement, this.getTrustAnchorKeys(entityStatement),
+            verificationCache);
+        this.verifyEntityStatementSignature(entityStatement, entityStatement.getJwkSet(), verificationCache);
+      }
+      else {
+        this.verifyEntityStatementSignature(entityStatement,
+            position.chain().get(position.index() - 1).getJwkSet(), verificationCache);
+      }
+    }
+    catch (final ChainValidationException | ParseException | RuntimeException e) {
+      log.debug("Verification of shared statement issued by {} for {} failed", entityStatement.getIssuer(),
+          entityStatement.getSubject(), e);
+    }
+  }
+
+  /**
+   * The position of a statement in an ordered chain.
+   *
+   * @param chain the ordered chain
+   * @param index the index of the statement in the chain
+   */
+  private record StatementPosition(List<EntityStatement> chain, int index) {
+  }
+
+  /**
+   * Runs a validation task for each chain index on the batch executor and waits for all tasks to complete.
+   *
+   * @param chainIndexes the indexes of the chains to validate
+   * @param task the validation task
+   * @param rejectionHandler handler for chains whose validation task is rejected by the batch executor
+   */
+  private void runBatch(final List<Integer> chainIndexes, final IntConsumer task,
+      final IntConsumer rejectionHandler) {
+    final List<CompletableFuture<Void>> futures = new ArrayList<>(chainIndexes.size());
+    for (final Integer index : chainIndexes) {
+      try {
+        futures.add(CompletableFuture.runAsync(() -> task.accept(index), this.batchExecutor));
+      }
+      catch (final RejectedExecutionException e) {
+        log.debug("Validation of chain {} was rejected by the batch executor", index);
+        rejectionHandler.accept(index);
+      }
+    }
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+  }
+
+  /**
+   * Validates a chain ordered from Trust Anchor Entity Configuration to target Entity Configuration.
+   *
+   * @param chain the ordered chain
+   * @param verificationCache cache of verified signatures or null to verify all signatures
+   * @param signatureExecutor executor for concurrent signature verification or null to verify signatures in this thread
+   * @return chain validation result
+   * @throws ChainValidationException errors validating the chain
+   */
+  private ChainValidationResult validateOrderedChain(final List<EntityStatement> chain,
+      final SignatureVerificationCache verificationCache, final Executor signatureExecutor)
+      throws ChainValidationException {
 
     // Check that chain has at least length = 2
     if (chain.size() < 3) {
-      throw new ChainValidationException("Chain does not include at least two statements");
+      throw new ChainValidationException(ChainValidationFailureReason.CHAIN_TOO_SHORT,
+          "Chain does not include at least two statements");
     }
     log.debug("Validating chain of length {}", chain.size());
 
@@ -111,20 +465,45 @@ public class DefaultFederationChainValidator implements FederationChainValidator
       }
     }
 
-    // Check signatures
-    this.checkSignatures(chain);
-    log.debug("All signatures of the chain successfully validated");
+    final ChainValidationContext context = new ChainValidationContext(chain, verificationCache);
 
-    // Check constraints
-    this.checkConstraints(chain);
-    log.debug("Constraints successfully validated");
+    // Cheap checks are done before any signature is verified to reject invalid chains early
+    // Check validity time
+    long stageStart = this.startTimer();
+    for (final EntityStatement entityStatement : chain) {
+      this.verifyValidityTime(entityStatement);
+    }
+    this.stageCompleted(ChainValidationStage.VALIDITY_TIME, stageStart);
+    log.debug("Validity time of all statements successfully validated");
 
     // Check critical claims
+    stageStart = this.startTimer();
     this.checkCriticalClaims(chain);
+    this.stageCompleted(ChainValidationStage.CRITICAL_CLAIMS, stageStart);
     log.debug("No unrecognized critical claims");
 
+    // Check constraints
+    stageStart = this.startTimer();
+    this.checkConstraints(context);
+    this.stageCompleted(ChainValidationStage.CONSTRAINTS, stageStart);
+    log.debug("Constraints successfully validated");
+
+    // Check signatures
+    stageStart = this.startTimer();
+    this.checkSignatures(context, signatureExecutor);
+    this.stageCompleted(ChainValidationStage.SIGNATURES, stageStart);
+    log.debug("All signatures of the chain successfully validated");
+
+    // Check EntityConfiguration vs EntityStatement ending
+    // Check Authority hints (Entity Configuration)
+    stageStart = this.startTimer();
+    final EntityMetadataInfoClaim targetEntityMetadata = this.getVerifiedLeafEntityStatement(context);
+    this.stageCompleted(ChainValidationStage.LEAF_STATEMENT, stageStart);
+
     // Metadata policy merge
-    final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicy = this.mergeMetadataPolicies(chain);
+    stageStart = this.startTimer();
+    final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicy = this.mergeMetadataPolicies(context);
+    this.stageCompleted(ChainValidationStage.METADATA_POLICY_MERGE, stageStart);
     if (log.isDebugEnabled()) {
       for (final String entityType : mergedMetadataPolicy.keySet()) {
         try {
@@ -138,69 +517,169 @@ public class DefaultFederationChainValidator implements FederationChainValidator
       }
     }
 
-    // Check EntityConfiguration vs EntityStatement ending
-    // Check Authority hints (Entity Configuration)
-    final EntityMetadataInfoClaim targetEntityMetadata = this.getVerifiedLeafEntityStatement(chain);
-
     // Process metadata against policy
+    stageStart = this.startTimer();
     final EntityMetadataInfoClaim policyProcessedMetadata =
         this.applyMetadataPolicy(targetEntityMetadata, mergedMetadataPolicy);
+    this.stageCompleted(ChainValidationStage.METADATA_POLICY_APPLICATION, stageStart);
+
+    // Collect trust marks
+    stageStart = this.startTimer();
+    final List<TrustMarkClaim> subjectTrustMarks = this.collectSubjectTrustMarks(chain);
+    this.stageCompleted(ChainValidationStage.TRUST_MARK_COLLECTION, stageStart);
 
     // Collect results
     return ChainValidationResult.builder()
         .validatedChain(chain)
         .declaredMetadata(targetEntityMetadata)
         .policyProcessedMetadata(policyProcessedMetadata)
-        .subjectTrustMarks(this.collectSubjectTrustMarks(chain))
+        .subjectTrustMarks(subjectTrustMarks)
         .build();
   }
 
+  /**
+   * Get the start time of a measurement, if a listener is set.
+   *
+   * @return the current value of the system nano time, or 0 if no listener is set
+   */
+  private long startTimer() {
+    return this.listener != ChainValidationListener.NOOP ? System.nanoTime() : 0L;
+  }
+
+  private void stageCompleted(final ChainValidationStage stage, final long start) {
+    if (this.listener != ChainValidationListener.NOOP) {
+      this.listener.stageCompleted(stage, System.nanoTime() - start);
+    }
+  }
+
+  private void chainValidated(final int chainLength, final long start) {
+    if (this.listener != ChainValidationListener.NOOP) {
+      this.listener.chainValidated(chainLength, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Orders the chain from Trust Anchor Entity Configuration to target Entity Configuration.
+   *
+   * <p>
+   * Chains that are already ordered with the Trust Anchor first or last are recognized in a single pass and are only
+   * copied. Other chains are ordered using an index of Entity Statements by issuer. Chains with more than one
+   * Entity Statement from the same issuer, more than two Entity Configurations, or loops are rejected.
+   * </p>
+   *
+   * @param unorderedChain the chain in any order
+   * @return the chain ordered from Trust Anchor to target entity
+   * @throws ChainValidationException if the statements do not form a single path
+   */
   private List<EntityStatement> orderChain(final List<EntityStatement> unorderedChain) throws ChainValidationException {
-    // Find the Entity Configurations
-    final List<EntityStatement> entityConfigurations = unorderedChain.stream()
-        .filter(entityStatement -> entityStatement.getSubject().equals(entityStatement.getIssuer()))
-        .toList();
 
-    // Find the Entity statements
-    final List<EntityStatement> entityStatements = unorderedChain.stream()
-        .filter(entityStatement -> !entityStatement.getSubject().equals(entityStatement.getIssuer()))
-        .toList();
+    if (this.isOrderedChain(unorderedChain, false)) {
+      return new ArrayList<>(unorderedChain);
+    }
+    if (this.isOrderedChain(unorderedChain, true)) {
+      final List<EntityStatement> path = new ArrayList<>(unorderedChain);
+      Collections.reverse(path);
+      return path;
+    }
 
-    // Get List of issuers
-    final List<String> issuers = entityStatements.stream().map(EntityStatement::getIssuer).toList();
-    // Get the TA = the Entity Configuration listed as Issuer of en Entity Statement
+    // Index Entity Statements by issuer and collect Entity Configurations
+    final Map<String, EntityStatement> statementByIssuer = new HashMap<>();
+    final Set<String> statementSubjects = new HashSet<>();
+    final List<EntityStatement> entityConfigurations = new ArrayList<>();
+    for (final EntityStatement entityStatement : unorderedChain) {
+      if (entityStatement.getSubject().equals(entityStatement.getIssuer())) {
+        entityConfigurations.add(entityStatement);
+        continue;
+      }
+      if (statementByIssuer.put(entityStatement.getIssuer(), entityStatement) != null) {
+        throw new ChainValidationException(ChainValidationFailureReason.DUPLICATE_ISSUER,
+            "Chain contains more than one Entity Statement issued by: " + entityStatement.getIssuer());
+      }
+      statementSubjects.add(entityStatement.getSubject());
+    }
+    if (entityConfigurations.size() > 2) {
+      throw new ChainValidationException(ChainValidationFailureReason.TOO_MANY_ENTITY_CONFIGURATIONS,
+          "Chain contains more than two Entity Configurations");
+    }
+
+    // Get the TA = the Entity Configuration listed as Issuer, but not as subject, of an Entity Statement
     final EntityStatement taEntityConfiguration = entityConfigurations.stream()
-        .filter(entityStatement -> issuers.contains(entityStatement.getSubject()))
+        .filter(entityStatement -> statementByIssuer.containsKey(entityStatement.getSubject()))
+        .filter(entityStatement -> !statementSubjects.contains(entityStatement.getSubject()))
         .findFirst()
         .orElseThrow(
-            () -> new ChainValidationException("No Trust anchor Entity Configuration found matching the path"));
+            () -> new ChainValidationException(ChainValidationFailureReason.MISSING_TRUST_ANCHOR_CONFIGURATION,
+                "No Trust anchor Entity Configuration found matching the path"));
     final EntityStatement targetEntityConfiguration = entityConfigurations.stream()
-        .filter(entityStatement -> !entityStatement.getSubject().equals(taEntityConfiguration.getSubject()))
+        .filter(entityStatement -> entityStatement != taEntityConfiguration)
         .findFirst()
-        .orElseThrow(() -> new ChainValidationException("No target Entity Configuration found"));
+        .orElseThrow(() -> new ChainValidationException(ChainValidationFailureReason.MISSING_TARGET_CONFIGURATION,
+            "No target Entity Configuration found"));
 
     // We have the TA and the target. Let's build the path of entity statements
-    final List<EntityStatement> path = new ArrayList<>(List.of(taEntityConfiguration));
+    final List<EntityStatement> path = new ArrayList<>(unorderedChain.size());
+    path.add(taEntityConfiguration);
+    final Set<String> pathSubjects = new HashSet<>();
+    pathSubjects.add(taEntityConfiguration.getSubject());
     String currentIssuer = taEntityConfiguration.getSubject();
-    for (int i = 0; i < entityStatements.size(); i++) {
-      final String finalCurrentIssuer = currentIssuer;
-      final EntityStatement nextEntityStatement = entityStatements.stream()
-          .filter((EntityStatement entityStatement) -> entityStatement.getIssuer().equals(finalCurrentIssuer))
-          .findFirst()
-          .orElseThrow(
-              () -> new ChainValidationException("No next Entity Statement found for issuer: " + finalCurrentIssuer));
+    for (int i = 0; i < statementByIssuer.size(); i++) {
+      final EntityStatement nextEntityStatement = statementByIssuer.get(currentIssuer);
+      if (nextEntityStatement == null) {
+        throw new ChainValidationException(ChainValidationFailureReason.BROKEN_PATH,
+            "No next Entity Statement found for issuer: " + currentIssuer);
+      }
+      if (!pathSubjects.add(nextEntityStatement.getSubject())) {
+        throw new ChainValidationException(ChainValidationFailureReason.PATH_LOOP,
+            "Chain contains a loop at: " + nextEntityStatement.getSubject());
+      }
       path.add(nextEntityStatement);
       currentIssuer = nextEntityStatement.getSubject();
     }
-    final EntityStatement lastEntityStatement = path.get(path.size() - 1);
-    if (targetEntityConfiguration.getSubject().equals(lastEntityStatement.getSubject())) {
+    if (targetEntityConfiguration.getSubject().equals(currentIssuer)) {
       path.add(targetEntityConfiguration);
       return path;
     }
-    throw new ChainValidationException(
+    throw new ChainValidationException(ChainValidationFailureReason.BROKEN_PATH,
         "Target Entity Configuration does not match the last Entity Statement of the path");
   }
 
+  /**
+   * Checks in a single pass if a chain is a valid path ordered from Trust Anchor Entity Configuration to target Entity
+   * Configuration.
+   *
+   * @param chain the chain to check
+   * @param reverse true to check the chain in reverse order
+   * @return true if the chain, in the checked direction, is an ordered path
+   */
+  private boolean isOrderedChain(final List<EntityStatement> chain, final boolean reverse) {
+    final int size = chain.size();
+    if (size < 3) {
+      return false;
+    }
+    final IntFunction<EntityStatement> get = reverse
+        ? index -> chain.get(size - 1 - index)
+        : chain::get;
+
+    final EntityStatement trustAnchor = get.apply(0);
+    final EntityStatement target = get.apply(size - 1);
+    if (!trustAnchor.getSubject().equals(trustAnchor.getIssuer()) || !target.getSubject().equals(target.getIssuer())) {
+      return false;
+    }
+    final Set<String> pathSubjects = new HashSet<>();
+    pathSubjects.add(trustAnchor.getSubject());
+    String currentIssuer = trustAnchor.getSubject();
+    for (int i = 1; i < size - 1; i++) {
+      final EntityStatement entityStatement = get.apply(i);
+      if (entityStatement.getSubject().equals(entityStatement.getIssuer())
+          || !entityStatement.getIssuer().equals(currentIssuer)
+          || !pathSubjects.add(entityStatement.getSubject())) {
+        return false;
+      }
+      currentIssuer = entityStatement.getSubject();
+    }
+    return target.getSubject().equals(currentIssuer);
+  }
+
   private List<TrustMarkClaim> collectSubjectTrustMarks(final List<EntityStatement> chain) {
 
     final EntityStatement leafStatement = chain.get(chain.size() - 1);
@@ -222,55 +701,74 @@ public class DefaultFederationChainValidator implements FederationChainValidator
     return trustMarks;
   }
 
+  /**
+   * Processes the metadata of the target entity against the merged metadata policy.
+   *
+   * <p>
+   * The processed metadata is built directly from the metadata objects of the target metadata, without conversion
+   * through JSON. All metadata objects of the processed metadata, including their nested values, are mutable copies
+   * that are not shared with the target metadata or the metadata policy.
+   * </p>
+   *
+   * @param targetMetadata the metadata of the target entity
+   * @param mergedMetadataPolicy the merged metadata policy per entity type
+   * @return policy processed metadata
+   * @throws ChainValidationException if the metadata does not meet the policy
+   */
   private EntityMetadataInfoClaim applyMetadataPolicy(final EntityMetadataInfoClaim targetMetadata,
       final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicy) throws ChainValidationException {
 
     try {
       if (targetMetadata == null) {
-        throw new ChainValidationException("Leaf entity has no metadata");
+        throw new ChainValidationException(ChainValidationFailureReason.MISSING_LEAF_METADATA,
+            "Leaf entity has no metadata");
       }
-      // Create a new updatable metadata object for processed metadata based on existing metadata
-      final Map<String, Object> metadataJsonObject = new HashMap<>(OidcUtils.toJsonObject(targetMetadata));
+      final EntityMetadataInfoClaim.EntityMetadataInfoClaimBuilder processedMetadataBuilder =
+          EntityMetadataInfoClaim.builder();
 
-      for (final String entityType : metadataJsonObject.keySet()) {
+      for (final Map.Entry<String, Map<String, Object>> entityTypeMetadata : targetMetadata.getClaimObjects()
+          .entrySet()) {
         // Process metadata for each key type
         // Note that metadata policies are unique per language tag as per OpenID federation standard.
         // No attempts are made to enforce e.g., organization_name policy on an organization_nam#sv metadata value
-        if (mergedMetadataPolicy.containsKey(entityType)) {
+        final String entityType = entityTypeMetadata.getKey();
+        final Map<String, Object> processedEntityTypeMetadata = OidcUtils.copyJsonObject(entityTypeMetadata.getValue());
+        if (mergedMetadataPolicy.containsKey(entityType) && processedEntityTypeMetadata != null) {
           // This is always true if there is any metadata to process
           final Map<String, MetadataParameterPolicy> entityTypeMetadataPolicy = mergedMetadataPolicy.get(entityType)
               .getMetadataParameterPolicyMap();
-          final Map<String, Object> targetEntityTypeMetadata = new HashMap<>(
-              OidcUtils.toJsonObject(metadataJsonObject.get(entityType)));
-          for (final String metadataParamName : targetEntityTypeMetadata.keySet()) {
+          for (final Map.Entry<String, Object> metadataParam : processedEntityTypeMetadata.entrySet()) {
             // Process each metadata parameter
-            if (entityTypeMetadataPolicy.containsKey(metadataParamName)) {
+            final MetadataParameterPolicy metadataParameterPolicy =
+                entityTypeMetadataPolicy.get(metadataParam.getKey());
+            if (metadataParameterPolicy != null) {
               final Object processedMetadataValue = this.metadataPolicyProcessor.processPolicyParam(
-                  targetEntityTypeMetadata.get(metadataParamName),
-                  entityTypeMetadataPolicy.get(metadataParamName));
-              // Store new value
-              targetEntityTypeMetadata.put(metadataParamName, processedMetadataValue);
+                  metadataParam.getValue(), metadataParameterPolicy);
+              // Store new value. The processed value may share values with the cached merged policy.
+              metadataParam.setValue(OidcUtils.copyJsonValue(processedMetadataValue));
             }
           }
-          // Put result entity type metadata values
-          metadataJsonObject.put(entityType, targetEntityTypeMetadata);
         }
+        // Put result entity type metadata values
+        processedMetadataBuilder.customEntityMetadataObject(entityType, processedEntityTypeMetadata);
       }
 
-      return OidcUtils.readJsonObject(metadataJsonObject, EntityMetadataInfoClaim.class);
+      return processedMetadataBuilder.build();
 
     }
     catch (final PolicyTranslationException | PolicyProcessingException e) {
-      throw new ChainValidationException("Failed to process metadata against policy", e);
+      throw new ChainValidationException(ChainValidationFailureReason.METADATA_POLICY_APPLICATION_FAILED,
+          "Failed to process metadata against policy", e);
     }
 
   }
 
-  private EntityMetadataInfoClaim getVerifiedLeafEntityStatement(final List<EntityStatement> chain)
+  private EntityMetadataInfoClaim getVerifiedLeafEntityStatement(final ChainValidationContext context)
       throws ChainValidationException {
 
-    final EntityStatement leafEntityStatement = chain.get(chain.size() - 1);
-    if (this.isSelfSigned(leafEntityStatement)) {
+    final List<EntityStatement> chain = context.getChain();
+    final EntityStatement leafEntityStatement = context.getLeafStatement();
+    if (context.isLeafSelfSigned()) {
       log.debug("Leaf statement is a self signed Entity Configuration statement");
       // This is an Entity Configuration. Check authority hints
       final EntityStatement superiorEntityStatement = chain.get(chain.size() - 2);
@@ -299,147 +797,225 @@ public class DefaultFederationChainValidator implements FederationChainValidator
       // Check that leaf entity statement subject_data_publication claim has declared "none" as the publication type
       final String subjectDataPublication = leafEntityStatement.getSubjectEntityConfigurationLocation();
       if (subjectDataPublication == null) {
-        throw new ChainValidationException(
+        throw new ChainValidationException(ChainValidationFailureReason.INVALID_LEAF_STATEMENT,
             "Chain ends with Entity Statement without declaring subject_entity_configuration_location");
       }
       else {
-        throw new ChainValidationException(
+        throw new ChainValidationException(ChainValidationFailureReason.INVALID_LEAF_STATEMENT,
             "Chain ends with Entity Statement despite having a subject_entity_configuration_location claim. Resolve this claim first and amend the chain");
       }
     }
   }
 
-  private EntityMetadataInfoClaim getCollectedMetadata(EntityMetadataInfoClaim leafMetadata,
-      EntityMetadataInfoClaim superiorMetadata)
-      throws ChainValidationException {
-
-    leafMetadata = Optional.ofNullable(leafMetadata).orElse(EntityMetadataInfoClaim.builder().build());
-    superiorMetadata = Optional.ofNullable(superiorMetadata).orElse(EntityMetadataInfoClaim.builder().build());
-    final Map<String, Object> collectedMetadataObject = new HashMap<>();
-
-    final Map<String, Object> leafObjects = OidcUtils.toJsonObject(leafMetadata);
-    final Map<String, Object> superiorObjects = OidcUtils.toJsonObject(superiorMetadata);
+  /**
+   * Collects the metadata of the leaf entity from its Entity Configuration and the Entity Statement issued for it by
+   * its superior. Metadata in the superior statement takes precedence.
+   *
+   * <p>
+   * All metadata objects of the collected metadata, including their nested values, are mutable copies that are not
+   * shared with the statements. The statements may be cached and used by other validations.
+   * </p>
+   *
+   * @param leafMetadata metadata of the leaf Entity Configuration
+   * @param superiorMetadata metadata of the superior Entity Statement
+   * @return collected metadata
+   */
+  private EntityMetadataInfoClaim getCollectedMetadata(final EntityMetadataInfoClaim leafMetadata,
+      final EntityMetadataInfoClaim superiorMetadata) {
 
-    final List<String> entityTypes = this.getAllKeys(leafObjects, superiorObjects);
+    final Map<String, Map<String, Object>> leafObjects = Optional.ofNullable(leafMetadata)
+        .map(EntityMetadataInfoClaim::getClaimObjects)
+        .orElse(Map.of());
+    final Map<String, Map<String, Object>> superiorObjects = Optional.ofNullable(superiorMetadata)
+        .map(EntityMetadataInfoClaim::getClaimObjects)
+        .orElse(Map.of());
+    final Set<String> entityTypes = new LinkedHashSet<>(leafObjects.keySet());
+    entityTypes.addAll(superiorObjects.keySet());
 
+    final EntityMetadataInfoClaim.EntityMetadataInfoClaimBuilder collectedMetadataBuilder =
+        EntityMetadataInfoClaim.builder();
     for (final String entityType : entityTypes) {
+      final Map<String, Object> collectedMetadataParams;
       if (!superiorObjects.containsKey(entityType)) {
         // No metadata set in superior statement. Use metadata from leaf statement.
-        collectedMetadataObject.put(entityType, leafObjects.get(entityType));
-        continue;
+        collectedMetadataParams = OidcUtils.copyJsonObject(leafObjects.get(entityType));
       }
-      if (!leafObjects.containsKey(entityType)) {
+      else if (!leafObjects.containsKey(entityType)) {
         // No metadata set in leaf statement. Use metadata from superior statement.
-        collectedMetadataObject.put(entityType, superiorObjects.get(entityType));
-        continue;
+        collectedMetadataParams = OidcUtils.copyJsonObject(superiorObjects.get(entityType));
       }
-      // Metadata is present both in leaf and superior statements. Join them and give precedence to superior data.
-      final Map<String, Object> superiorMetadataParams = OidcUtils.toJsonObject(superiorObjects.get(entityType));
-      final Map<String, Object> leafMetadataParams = OidcUtils.toJsonObject(leafObjects.get(entityType));
-      final Map<String, Object> collectedMetadataParams = new HashMap<>();
-      final List<String> metadataParams = this.getAllKeys(superiorMetadataParams, leafMetadataParams);
-
-      for (final String metadataParam : metadataParams) {
-        final Object collectedParam = superiorMetadataParams.containsKey(metadataParam)
-            ? superiorMetadataParams.get(metadataParam)
-            : leafMetadataParams.get(metadataParam);
-        collectedMetadataParams.put(metadataParam, collectedParam);
+      else {
+        // Metadata is present both in leaf and superior statements. Join them and give precedence to superior data.
+        collectedMetadataParams = new HashMap<>(Optional.ofNullable(leafObjects.get(entityType)).orElse(Map.of()));
+        collectedMetadataParams.putAll(Optional.ofNullable(superiorObjects.get(entityType)).orElse(Map.of()));
+        collectedMetadataParams.replaceAll((name, value) -> OidcUtils.copyJsonValue(value));
       }
-      collectedMetadataObject.put(entityType, collectedMetadataParams);
+      collectedMetadataBuilder.customEntityMetadataObject(entityType, collectedMetadataParams);
     }
-    return OidcUtils.readJsonObject(collectedMetadataObject, EntityMetadataInfoClaim.class);
+    return collectedMetadataBuilder.build();
   }
 
-  private List<String> getAllKeys(Map<String, ?> firstMap, Map<String, ?> secondMap) {
-    firstMap = Optional.ofNullable(firstMap).orElse(new HashMap<>());
-    secondMap = Optional.ofNullable(secondMap).orElse(new HashMap<>());
-    final List<String> keyList = new ArrayList<>(firstMap.keySet());
-    secondMap.keySet().stream()
-        .filter(entityType -> !keyList.contains(entityType))
-        .forEach(keyList::add);
-    return keyList;
-  }
-
-  private Map<String, EntityTypeMetadataPolicy> mergeMetadataPolicies(final List<EntityStatement> chain)
+  /**
+   * Merges the metadata policies of the chain for each entity type of the leaf entity.
+   *
+   * <p>
+   * The merged policy of the chain prefix from the Trust Anchor down to the superior of the leaf entity is cached per
+   * entity type, keyed by the digests of the prefix statements. Chains of leaf entities under the same superior share
+   * this prefix, which leaves only the statements about the leaf entity to be merged.
+   * </p>
+   *
+   * @param context the validation context
+   * @return merged metadata policies per leaf entity type
+   * @throws ChainValidationException if the metadata policies can not be parsed or merged
+   */
+  private Map<String, EntityTypeMetadataPolicy> mergeMetadataPolicies(final ChainValidationContext context)
       throws ChainValidationException {
 
     try {
-      // The list of unmerged relevant policies.
-      final List<Map<String, EntityTypeMetadataPolicy>> chainMetadataPolicies = new ArrayList<>();
-
-      final EntityStatement leafStatement = chain.get(chain.size() - 1);
-      final EntityMetadataInfoClaim leafMetadata = Optional.ofNullable(leafStatement.getMetadata())
-          .orElse(EntityMetadataInfoClaim.builder().build());
-      final Map<String, Object> leafEntityMetadataJsonObject = OidcUtils.toJsonObject(leafMetadata);
-      // Create a list of leaf entity types for which we will collect metadata policies
-      final List<String> leafEntityTypes = leafEntityMetadataJsonObject.keySet().stream()
-          .filter(
-              s -> leafEntityMetadataJsonObject.get(s) != null && !((Map<?, ?>) leafEntityMetadataJsonObject.get(
-                  s)).isEmpty())
-          .toList();
+      final List<EntityStatement> chain = context.getChain();
+      // The leaf entity types for which we will collect metadata policies
+      final List<String> leafEntityTypes = context.getLeafEntityTypes();
 
-      for (final EntityStatement entityStatement : chain) {
-        final Map<String, Object> metadataPolicyObj = OidcUtils.toJsonObject(
-            Optional.ofNullable(entityStatement.getMetadataPolicy()).orElse(EntityMetadataInfoClaim.builder().build()));
-        final List<String> criticalPolicyOperators =
-            Optional.ofNullable(entityStatement.getMetadataPolicyCriticalClaims())
-                .orElse(List.of());
-        // Create a metadata policy map keyed by entity type for collecting policies for this entity statement
-        final Map<String, EntityTypeMetadataPolicy> metadataPolicyMap = new HashMap<>();
-        for (final String entityType : leafEntityTypes) {
-          if (metadataPolicyObj.containsKey(entityType) && !((Map<?, ?>) metadataPolicyObj.get(entityType)).isEmpty()) {
-            // Read policy json object for this entity type
-            final EntityTypeMetadataPolicy metadataPolicy = this.metadataPolicySerializer.fromJsonObject(
-                OidcUtils.toJsonObject(metadataPolicyObj.get(entityType)),
-                criticalPolicyOperators);
-            metadataPolicyMap.put(entityType, metadataPolicy);
-          }
+      // The prefix excludes the Entity Statement about the leaf and the leaf Entity Configuration
+      final List<EntityStatement> prefix = chain.subList(0, chain.size() - 2);
+      final String prefixKey = this.mergedPolicyCaching ? this.getPolicyPrefixKey(prefix) : null;
+
+      // Set initial policies, using cached prefix policies where available
+      final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicies = new HashMap<>();
+      final List<String> uncachedEntityTypes = new ArrayList<>();
+      for (final String entityType : leafEntityTypes) {
+        final EntityTypeMetadataPolicy cachedPolicy = prefixKey == null
+            ? null
+            : this.mergedPolicyCache.get(prefixKey + "#" + entityType);
+        if (prefixKey != null) {
+          this.listener.cacheAccessed(ChainValidationListener.CacheType.MERGED_METADATA_POLICY, cachedPolicy != null);
         }
-        if (!metadataPolicyMap.isEmpty()) {
-          chainMetadataPolicies.add(metadataPolicyMap);
+        if (cachedPolicy != null) {
+          log.trace("Using cached merged metadata policy for entity type {}", entityType);
+          mergedMetadataPolicies.put(entityType, cachedPolicy);
+        }
+        else {
+          mergedMetadataPolicies.put(entityType, EntityTypeMetadataPolicy.builder().build());
+          uncachedEntityTypes.add(entityType);
         }
       }
 
-      // Merge policies
-      final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicies = new HashMap<>();
-      // Set initial empty policies
-      leafEntityTypes
-          .forEach(entityType -> mergedMetadataPolicies.put(entityType, EntityTypeMetadataPolicy.builder().build()));
-
-      for (final Map<String, EntityTypeMetadataPolicy> entityPolicyMap : chainMetadataPolicies) {
-        for (final String entityType : leafEntityTypes) {
-          final EntityTypeMetadataPolicy mergedWithSubordinate = mergedMetadataPolicies.get(entityType)
-              .mergeWithSubordinate(entityPolicyMap.get(entityType));
-          mergedMetadataPolicies.put(entityType, mergedWithSubordinate);
+      // Merge and cache prefix policies that were not cached
+      if (!uncachedEntityTypes.isEmpty()) {
+        this.mergeStatementPolicies(mergedMetadataPolicies, prefix, uncachedEntityTypes);
+        if (prefixKey != null) {
+          final Instant prefixExpirationTime = this.getEarliestExpirationTime(prefix);
+          for (final String entityType : uncachedEntityTypes) {
+            this.mergedPolicyCache.put(prefixKey + "#" + entityType, mergedMetadataPolicies.get(entityType),
+                prefixExpirationTime);
+          }
         }
       }
 
+      // Merge the policies that are specific to the leaf
+      this.mergeStatementPolicies(mergedMetadataPolicies, chain.subList(prefix.size(), chain.size()),
+          leafEntityTypes);
+
       return mergedMetadataPolicies;
     }
     catch (final PolicyTranslationException | PolicyProcessingException | PolicyMergeException e) {
-      throw new ChainValidationException("Error processing metadata policies in the chain", e);
+      throw new ChainValidationException(ChainValidationFailureReason.METADATA_POLICY_MERGE_FAILED,
+          "Error processing metadata policies in the chain", e);
+    }
+  }
+
+  /**
+   * Merges the metadata policies of a sequence of statements into already merged policies.
+   *
+   * @param mergedMetadataPolicies merged policies per entity type, updated with the result of the merge
+   * @param entityStatements the statements to merge, in chain order
+   * @param entityTypes the entity types to merge policies for
+   */
+  private void mergeStatementPolicies(final Map<String, EntityTypeMetadataPolicy> mergedMetadataPolicies,
+      final List<EntityStatement> entityStatements, final List<String> entityTypes)
+      throws PolicyTranslationException, PolicyProcessingException, PolicyMergeException {
+
+    for (final EntityStatement entityStatement : entityStatements) {
+      if (entityStatement.getMetadataPolicy() == null) {
+        continue;
+      }
+      final Map<String, Map<String, Object>> metadataPolicyObj = entityStatement.getMetadataPolicy().getClaimObjects();
+      final List<String> criticalPolicyOperators =
+          Optional.ofNullable(entityStatement.getMetadataPolicyCriticalClaims())
+              .orElse(List.of());
+      for (final String entityType : entityTypes) {
+        final Map<String, Object> entityTypePolicyObj = metadataPolicyObj.get(entityType);
+        if (entityTypePolicyObj != null && !entityTypePolicyObj.isEmpty()) {
+          // Read policy json object for this entity type
+          final EntityTypeMetadataPolicy metadataPolicy = this.metadataPolicySerializer.fromJsonObject(
+              entityTypePolicyObj, criticalPolicyOperators);
+          mergedMetadataPolicies.put(entityType,
+              mergedMetadataPolicies.get(entityType).mergeWithSubordinate(metadataPolicy));
+        }
+      }
     }
   }
 
+  /**
+   * Get the key identifying a chain prefix in the merged policy cache.
+   *
+   * @param prefix the statements of the chain prefix
+   * @return the key or null if the prefix should not be cached
+   */
+  private String getPolicyPrefixKey(final List<EntityStatement> prefix) {
+    if (prefix.isEmpty() || prefix.stream().anyMatch(entityStatement -> entityStatement.getExpirationTime() == null)) {
+      return null;
+    }
+    try {
+      final StringBuilder key = new StringBuilder();
+      for (final EntityStatement entityStatement : prefix) {
+        key.append(SignatureVerificationCache.getJwsDigest(entityStatement.getSignedJWT())).append('.');
+      }
+      return key.toString();
+    }
+    catch (final JOSEException e) {
+      log.debug("Unable to calculate chain prefix key, merged policy is not cached", e);
+      return null;
+    }
+  }
+
+  private Instant getEarliestExpirationTime(final List<EntityStatement> entityStatements) {
+    return entityStatements.stream()
+        .map(EntityStatement::getExpirationTime)
+        .map(Date::toInstant)
+        .min(Instant::compareTo)
+        .orElse(null);
+  }
+
   private void checkCriticalClaims(final List<EntityStatement> chain) throws ChainValidationException {
     if (chain.stream()
         .map(EntityStatement::getCriticalClaims)
         .filter(criticalClaims -> criticalClaims != null && !criticalClaims.isEmpty())
         .anyMatch(criticalClaims -> !new HashSet<>(this.supportedCriticalClaims).containsAll(criticalClaims))
     ) {
-      throw new ChainValidationException("Unsupported critical claims declaration in Entity Statement");
+      throw new ChainValidationException(ChainValidationFailureReason.UNSUPPORTED_CRITICAL_CLAIM,
+          "Unsupported critical claims declaration in Entity Statement");
     }
   }
 
-  private void checkConstraints(final List<EntityStatement> chain) throws ChainValidationException {
+  private void checkConstraints(final ChainValidationContext context) throws ChainValidationException {
+    final List<EntityStatement> chain = context.getChain();
+    // Constraints are checked before signatures, so the leaf is identified as an Entity Configuration by its
+    // issuer and subject. A leaf that is not signed by its own key is rejected after signature verification.
+    final boolean leafSelfSigned = context.isLeafEntityConfiguration();
+    final List<String> leafEntityTypes = context.getLeafEntityTypes().stream()
+        .filter(entityType -> !EntityMetadataInfoClaim.FEDERATION_ENTITY.equals(entityType))
+        .toList();
     for (int i = 1; i < chain.size(); i++) {
-      this.verifyIndividualConstraint(chain.get(i - 1).getConstraints(), chain.subList(i, chain.size()));
+      this.verifyIndividualConstraint(chain.get(i - 1), chain.subList(i, chain.size()), leafSelfSigned,
+          leafEntityTypes);
     }
   }
 
-  private void verifyIndividualConstraint(final ConstraintsClaim constraints,
-      final List<EntityStatement> subordinateStatements)
-      throws ChainValidationException {
+  private void verifyIndividualConstraint(final EntityStatement superiorStatement,
+      final List<EntityStatement> subordinateStatements, final boolean leafSelfSigned,
+      final List<String> leafEntityTypes) throws ChainValidationException {
+    final ConstraintsClaim constraints = superiorStatement.getConstraints();
     if (constraints == null) {
       return;
     }
@@ -450,125 +1026,231 @@ public class DefaultFederationChainValidator implements FederationChainValidator
     // Extract constraints components
     final Integer maxPathLength = constraints.getMaxPathLength();
     final List<String> allowedLeafEntityTypes = constraints.getAllowedLeafEntityTypes();
-    final NamingConstraints namingConstraints = Optional.ofNullable(constraints.getNamingConstraints())
-        .orElse(new NamingConstraints());
-    final List<String> excluded = namingConstraints.getExcluded();
-    final List<String> permitted = namingConstraints.getPermitted();
-    final EntityStatement leafStatement = subordinateStatements.get(subordinateStatements.size() - 1);
-    final EntityMetadataInfoClaim leafMetadata = Optional.ofNullable(leafStatement.getMetadata())
-        .orElse(EntityMetadataInfoClaim.builder().build());
-    final Map<String, Object> leafEntityMetadataJsonObject = OidcUtils.toJsonObject(leafMetadata);
-    final List<String> leafEntityTypes = leafEntityMetadataJsonObject.keySet().stream()
-        .filter(s -> !"federation_entity".equals(s))
-        .filter(
-            s -> leafEntityMetadataJsonObject.get(s) != null && !((Map<?, ?>) leafEntityMetadataJsonObject.get(
-                s)).isEmpty())
-        .toList();
-    final List<String> subjectEntityIdentifiers = subordinateStatements.stream()
-        .map(EntityStatement::getSubject)
-        .toList();
 
     // Check max path length = the number of allowed intermediates
     if (maxPathLength != null) {
       int intermediateCount = subordinateStatements.size();
-      if (this.isSelfSigned(leafStatement)) {
+      if (leafSelfSigned) {
         // This implementation allows a chain to end with an Entity Statement.
         // If the last statement is selfsigned it is not counted as an Intermediate Entity statement
         intermediateCount -= 1;
       }
       if (intermediateCount > maxPathLength) {
-        throw new ChainValidationException("Max path length constraints check failed");
+        throw new ChainValidationException(ChainValidationFailureReason.MAX_PATH_LENGTH_EXCEEDED,
+            "Max path length constraints check failed");
       }
     }
 
     // Check naming constraints
-    if (excluded != null && !excluded.isEmpty()) {
-      // Fail if any subject Entity Identifier starts with any declared excluded name
-      if (subjectEntityIdentifiers.stream().anyMatch(subjectId -> excluded.stream().anyMatch(subjectId::startsWith))
-      ) {
-        throw new ChainValidationException("Excluded name constraints violation");
+    final NamingConstraintsMatcher namingConstraintsMatcher = superiorStatement.getNamingConstraintsMatcher();
+    // Fail if any subject Entity Identifier starts with any declared excluded name
+    for (final EntityStatement subordinateStatement : subordinateStatements) {
+      if (namingConstraintsMatcher.isExcluded(subordinateStatement.getSubject())) {
+        throw new ChainValidationException(ChainValidationFailureReason.EXCLUDED_NAME,
+            "Excluded name constraints violation");
       }
     }
-    if (permitted != null && !permitted.isEmpty()) {
-      // Fail if not all subject Entity Identifiers starts with at least one of the permitted names
-      if (!subjectEntityIdentifiers.stream()
-          .allMatch(subjectId -> permitted.stream().anyMatch(subjectId::startsWith))) {
-        throw new ChainValidationException("Permitted name constraints violation");
+    // Fail if not all subject Entity Identifiers starts with at least one of the permitted names
+    for (final EntityStatement subordinateStatement : subordinateStatements) {
+      if (!namingConstraintsMatcher.isPermitted(subordinateStatement.getSubject())) {
+        throw new ChainValidationException(ChainValidationFailureReason.NOT_PERMITTED_NAME,
+            "Permitted name constraints violation");
       }
     }
 
     // Check leaf entity types
     if (allowedLeafEntityTypes != null && !allowedLeafEntityTypes.isEmpty()) {
       if (!new HashSet<>(allowedLeafEntityTypes).containsAll(leafEntityTypes)) {
-        throw new ChainValidationException("Leaf entity type constraints violation");
+        throw new ChainValidationException(ChainValidationFailureReason.LEAF_ENTITY_TYPE_NOT_ALLOWED,
+            "Leaf entity type constraints violation");
       }
     }
   }
 
-  private void checkSignatures(final List<EntityStatement> chain) throws ChainValidationException {
+  /**
+   * Verifies the signatures of all statements in the chain and records the outcome in the validation context. A chain
+   * of n statements requires n+1 signature verifications, as the Trust Anchor Entity Configuration is verified both
+   * with the trusted keys and with its own keys.
+   *
+   * <p>
+   * If a signature executor is given, the statements are verified concurrently. Each statement is verified with the key
+   * set of its superior, which is known once the chain is ordered. If several statements fail, the failure of the
+   * statement closest to the Trust Anchor is reported, which is the same failure as reported by sequential
+   * verification.
+   * </p>
+   *
+   * @param context the validation context
+   * @param signatureExecutor executor for concurrent signature verification or null to verify signatures in this thread
+   * @throws ChainValidationException if any signature is not valid
+   */
+  private void checkSignatures(final ChainValidationContext context, final Executor signatureExecutor)
+      throws ChainValidationException {
 
-    try {
-      // Verify that TA is trusted
-      this.verifyEntityStatementSignature(chain.get(0), this.trustedKeys);
-      // Verify that TA is selfsigned
-      this.verifyEntityStatementSignature(chain.get(0), chain.get(0).getJwkSet());
-      // Verify validity time
-      this.verifyValidityTime(chain.get(0));
+    final int chainLength = context.getChain().size();
+    if (signatureExecutor == null) {
+      for (int i = 0; i < chainLength; i++) {
+        context.setVerification(i, this.verifyStatement(context, i));
+      }
+      return;
+    }
 
-      // Verify that all other statements can
-      for (int i = 1; i < chain.size(); i++) {
-        this.verifyEntityStatementSignature(chain.get(i), chain.get(i - 1).getJwkSet());
-        this.verifyValidityTime(chain.get(i));
+    final List<CompletableFuture<ChainValidationContext.StatementVerification>> verifications =
+        new ArrayList<>(chainLength);
+    for (int i = 0; i < chainLength; i++) {
+      final int index = i;
+      verifications.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return this.verifyStatement(context, index);
+        }
+        catch (final ChainValidationException e) {
+          throw new CompletionException(e);
+        }
+      }, signatureExecutor));
+    }
+    // Collect results in chain order to report failures deterministically
+    for (int i = 0; i < chainLength; i++) {
+      try {
+        context.setVerification(i, verifications.get(i).join());
+      }
+      catch (final CompletionException e) {
+        if (e.getCause() instanceof final ChainValidationException chainValidationException) {
+          throw chainValidationException;
+        }
+        throw new ChainValidationException(ChainValidationFailureReason.INVALID_SIGNATURE,
+            "Signature validation error", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Verifies the signature of one statement in the chain.
+   *
+   * @param context the validation context
+   * @param index the position of the statement in the chain
+   * @return the verification outcome
+   * @throws ChainValidationException if the signature is not valid
+   */
+  private ChainValidationContext.StatementVerification verifyStatement(final ChainValidationContext context,
+      final int index) throws ChainValidationException {
+
+    final EntityStatement entityStatement = context.getStatement(index);
+    try {
+      if (index == 0) {
+        // Verify that TA is trusted
+        final JWK trustAnchorKey = this.verifyEntityStatementSignature(entityStatement,
+            this.getTrustAnchorKeys(entityStatement), context.getSignatureVerificationCache());
+        // Verify that TA is selfsigned
+        this.verifyEntityStatementSignature(entityStatement, entityStatement.getJwkSet(),
+            context.getSignatureVerificationCache());
+        return new ChainValidationContext.StatementVerification(true, trustAnchorKey);
       }
+      // Verify with the keys of the superior statement
+      final JWK verifyingKey = this.verifyEntityStatementSignature(entityStatement,
+          context.getStatement(index - 1).getJwkSet(), context.getSignatureVerificationCache());
+      return new ChainValidationContext.StatementVerification(this.isSelfSigned(entityStatement, verifyingKey),
+          verifyingKey);
     }
     catch (final ParseException e) {
-      throw new ChainValidationException("Signature validation error", e);
+      throw new ChainValidationException(ChainValidationFailureReason.INVALID_SIGNATURE,
+          "Signature validation error", e);
     }
   }
 
+  /**
+   * Get the keys trusted to verify a Trust Anchor Entity Configuration. With strict key selection, only the registered
+   * keys with the kid of the statement are returned.
+   *
+   * @param trustAnchorStatement the Trust Anchor Entity Configuration
+   * @return the trusted keys
+   * @throws ChainValidationException if the Trust Anchor is not registered
+   */
+  private JWKSet getTrustAnchorKeys(final EntityStatement trustAnchorStatement) throws ChainValidationException {
+    if (this.trustAnchorRegistry == null) {
+      return this.trustedKeys;
+    }
+    final TrustAnchorRegistry.TrustAnchor trustAnchor =
+        this.trustAnchorRegistry.getTrustAnchor(trustAnchorStatement.getIssuer());
+    if (trustAnchor == null) {
+      throw new ChainValidationException(ChainValidationFailureReason.UNTRUSTED_TRUST_ANCHOR,
+          "Chain Trust Anchor is not trusted: " + trustAnchorStatement.getIssuer());
+    }
+    return this.strictKeySelection
+        ? trustAnchor.getKeys(trustAnchorStatement.getSignedJWT().getHeader().getKeyID())
+        : trustAnchor.getKeys();
+  }
+
   private void verifyValidityTime(final EntityStatement entityStatement) throws ChainValidationException {
 
     if (entityStatement.getIssueTime() == null) {
-      throw new ChainValidationException("Entity Statement has no issue time");
+      throw new ChainValidationException(ChainValidationFailureReason.MISSING_ISSUE_TIME,
+          "Entity Statement has no issue time");
     }
 
     if (entityStatement.getExpirationTime() == null) {
-      throw new ChainValidationException("Entity Statement has no expiration time");
+      throw new ChainValidationException(ChainValidationFailureReason.MISSING_EXPIRATION_TIME,
+          "Entity Statement has no expiration time");
     }
 
     final Instant issueTime = Instant.ofEpochMilli(entityStatement.getIssueTime().getTime());
     if (Instant.now().isBefore(issueTime.minusSeconds(15))) {
-      throw new ChainValidationException("Entity Statement issue time is in the future");
+      throw new ChainValidationException(ChainValidationFailureReason.ISSUED_IN_FUTURE,
+          "Entity Statement issue time is in the future");
     }
 
     final Instant expirationTime = Instant.ofEpochMilli(entityStatement.getExpirationTime().getTime());
     if (Instant.now().isAfter(expirationTime)) {
-      throw new ChainValidationException("Entity Statement has expired");
+      throw new ChainValidationException(ChainValidationFailureReason.EXPIRED, "Entity Statement has expired");
     }
   }
 
-  private boolean isSelfSigned(final EntityStatement entityStatement) {
+  /**
+   * Determines if a statement with a verified signature is self-signed. This is the case if the statement is an Entity
+   * Configuration and the key that verified its signature is present in its own JWK set. No additional signature
+   * verification is needed.
+   *
+   * @param entityStatement the statement with a verified signature
+   * @param verifyingKey the key that verified the signature
+   * @return true if the statement is self-signed
+   */
+  private boolean isSelfSigned(final EntityStatement entityStatement, final JWK verifyingKey) {
     try {
       if (!entityStatement.getSubject().equals(entityStatement.getIssuer())) {
         return false;
       }
-      this.verifyEntityStatementSignature(entityStatement, entityStatement.getJwkSet());
-      return true;
+      final String verifyingKeyThumbprint = verifyingKey.computeThumbprint().toString();
+      for (final JWK jwk : entityStatement.getJwkSet().getKeys()) {
+        if (verifyingKeyThumbprint.equals(jwk.computeThumbprint().toString())) {
+          return true;
+        }
+      }
+      return false;
     }
-    catch (final ChainValidationException | ParseException e) {
+    catch (final JOSEException | ParseException e) {
       return false;
     }
   }
 
-  private void verifyEntityStatementSignature(final EntityStatement entityStatement, final JWKSet jwkSet)
-      throws ChainValidationException {
+  private JWK verifyEntityStatementSignature(final EntityStatement entityStatement, final JWKSet jwkSet,
+      final SignatureVerificationCache verificationCache) throws ChainValidationException {
     try {
-      if (!OidcUtils.verifySignedJWT(entityStatement.getSignedJWT(), jwkSet)) {
-        throw new ChainValidationException("No matching trusted key found");
+      final OidcUtils.VerifyingKey lookup = OidcUtils.findVerifyingKey(entityStatement.getSignedJWT(), jwkSet,
+          this.strictKeySelection, verificationCache);
+      if (verificationCache != null) {
+        this.listener.cacheAccessed(ChainValidationListener.CacheType.SIGNATURE_VERIFICATION, lookup.cached());
       }
+      final JWK verifyingKey = lookup.key();
+      if (verifyingKey == null) {
+        throw new ChainValidationException(ChainValidationFailureReason.NO_MATCHING_KEY,
+            "No matching trusted key found");
+      }
+      this.listener.signatureVerified(entityStatement.getSignedJWT().getHeader().getAlgorithm(),
+          verifyingKey.getKeyType());
+      return verifyingKey;
     }
     catch (final JOSEException e) {
-      throw new ChainValidationException("Signature validation error", e);
+      throw new ChainValidationException(ChainValidationFailureReason.INVALID_SIGNATURE,
+          "Signature validation error", e);
     }
   }
+
 }
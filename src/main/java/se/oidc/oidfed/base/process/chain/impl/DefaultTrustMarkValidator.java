@@ -16,11 +16,15 @@
 package se.oidc.oidfed.base.process.chain.impl;
 
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import jakarta.annotation.Nonnull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import se.oidc.oidfed.base.data.federation.EntityStatement;
 import se.oidc.oidfed.base.data.federation.TrustMark;
@@ -36,23 +40,68 @@ import se.oidc.oidfed.base.process.chain.TrustMarkValidator;
 import se.oidc.oidfed.base.utils.OidcUtils;
 
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Default implementation of Trust Mark validator
+ *
+ * <p>
+ * The path from each Trust Mark issuer to the Trust Anchor is built and validated once per call, and the validated
+ * issuer keys are used to verify all Trust Marks from that issuer.
+ * </p>
+ * <p>
+ * If an executor is set, the Trust Marks of a call are validated concurrently, with a limit on the number of Trust
+ * Marks validated at the same time and an optional timeout. The valid Trust Marks are returned in the order of the
+ * input list, as when validated sequentially.
+ * </p>
  */
 @Slf4j
 @RequiredArgsConstructor
 public class DefaultTrustMarkValidator implements TrustMarkValidator {
 
+  /** The default maximum number of Trust Marks validated concurrently */
+  public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
   private final FederationPathBuilder pathBuilder;
   private final TrustMarkStatusResolver trustMarkStatusResolver;
   private final FederationChainValidator chainValidator;
 
+  /**
+   * Executor used to validate the Trust Marks of a call concurrently, for example an executor creating a virtual thread
+   * per task. Default is null, which validates Trust Marks sequentially in the calling thread.
+   */
+  @Setter
+  private Executor executor;
+
+  /**
+   * The maximum number of Trust Marks of a call validated concurrently. Default is {@link #DEFAULT_MAX_CONCURRENCY}.
+   */
+  @Setter
+  private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+  /**
+   * The maximum time for concurrent validation of the Trust Marks of a call. Trust Marks that are not validated within
+   * this time are not included in the result. Validations that have not completed at the timeout are not stopped, and
+   * keep running on the executor, including any blocking status requests, but their results are discarded. Default is
+   * null, which waits until all Trust Marks are validated.
+   */
+  @Setter
+  private Duration timeout;
+
   @Override
   public List<TrustMark> validateTrustMarks(final @Nonnull List<TrustMark> trustMarks,
       final @NonNull String subject, final @NonNull String trustAnchor) throws ChainValidationException {
@@ -62,98 +111,342 @@ public class DefaultTrustMarkValidator implements TrustMarkValidator {
       return List.of();
     }
 
+    // Validated issuer chains by Trust Mark issuer, as the Trust Anchor is the same for all Trust Marks
+    final Map<String, CompletableFuture<IssuerChain>> issuerChains = new ConcurrentHashMap<>();
+    if (this.executor != null && trustMarks.size() > 1) {
+      return this.validateConcurrently(trustMarks, issuerChains, trustAnchor);
+    }
     final List<TrustMark> validatedList = new ArrayList<>();
     for (final TrustMark trustMark : trustMarks) {
+      if (this.validateTrustMark(trustMark, issuerChains, trustAnchor)) {
+        validatedList.add(trustMark);
+      }
+    }
+    return validatedList;
 
-      try {
-        final String trustMarkIssuer = trustMark.getIssuer();
-        final List<EntityStatement> trustMarkChain = this.pathBuilder.buildPath(trustMarkIssuer, trustAnchor, true);
-        if (trustMarkChain.isEmpty()) {
-          log.debug("No validation path to trust mark issuer");
-          continue;
-        }
-        final ChainValidationResult validationResult = this.chainValidator.validate(trustMarkChain);
-
-        // Check trust mark signature against validated leaf entity key set
-        final EntityStatement trustMarkIssuerStatement = validationResult.getValidatedChain()
-            .get(validationResult.getValidatedChain().size() - 1);
-        if (!OidcUtils.verifySignedJWT(trustMark.getSignedJWT(), trustMarkIssuerStatement.getJwkSet())) {
-          log.debug("Trust mark signature validation failed. Skipping");
-          continue;
-        }
-        // Check validity time
-        OidcUtils.verifyValidityTime(trustMark.getSignedJWT());
+  }
 
-        // Check that issuer is authorized by trust anchor
-        final EntityStatement trustAnchorStatement = trustMarkChain.get(0);
-        final Map<String, List<String>> trustMarkIssuerMap =
-            Optional.ofNullable(trustAnchorStatement.getTrustMarkIssuers())
-                .orElse(new HashMap<>());
-        if (!trustMarkIssuerMap.containsKey(trustMark.getTrustMarkId())) {
-          log.debug("Trust mark {} is not supported by Trust Anchor. Skipping", trustMark.getTrustMarkId());
-          continue;
-        }
-        final List<String> supportedIssuers = trustMarkIssuerMap.get(trustMark.getTrustMarkId());
-        if (!supportedIssuers.isEmpty()) {
-          if (!supportedIssuers.contains(trustMark.getIssuer())) {
-            log.debug("Trust Mark issuer {} is not supported for trust mark {}. Skipping", trustMark.getIssuer(),
-                trustMark.getTrustMarkId());
-            continue;
-          }
-        }
+  /**
+   * Validate Trust Marks concurrently on the executor, with at most {@link #maxConcurrency} Trust Marks validated at
+   * the same time. A Trust Mark rejected by the executor is validated in the calling thread. The result is the same as
+   * the sequential result, except that Trust Marks not validated before the timeout, or before the calling thread is
+   * interrupted, are not included.
+   *
+   * @param trustMarks the Trust Marks to validate
+   * @param issuerChains validated issuer chains of the current call
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return the valid Trust Marks in the order of the input list
+   * @throws ChainValidationException if the path to the issuer of any Trust Mark is not valid
+   */
+  private List<TrustMark> validateConcurrently(final List<TrustMark> trustMarks,
+      final Map<String, CompletableFuture<IssuerChain>> issuerChains, final String trustAnchor)
+      throws ChainValidationException {
 
-        // Check trust mark delegation
-        final SignedJWT delegation = trustMark.getDelegation();
-        if (delegation != null) {
-          final Map<String, TrustMarkOwner> trustMarkOwners =
-              Optional.ofNullable(trustAnchorStatement.getTrustMarkOwners())
-                  .orElse(new HashMap<>());
-          if (!trustMarkOwners.containsKey(trustMark.getTrustMarkId())) {
-            log.debug(
-                "No trust mark owner for the present delegation is present in the Trust Anchor statement. Skipping");
-            continue;
-          }
-          // Find the trust mark owner for this trust mark ID
-          final TrustMarkOwner trustMarkOwner = trustMarkOwners.get(trustMark.getTrustMarkId());
-          // Check that the trust mark owner subject is the issuer of the delegation JWT
-          final JWTClaimsSet claimsSet = delegation.getJWTClaimsSet();
-          final String delegationSubject = claimsSet.getSubject();
-          final String delegationIssuer = claimsSet.getIssuer();
-          if (!trustMarkOwner.getSubject().equals(delegationIssuer)) {
-            log.debug("Trust mark delegation issuer, does not match the expected trust mark owner. Skipping");
-            continue;
+    final long deadline = this.timeout == null ? Long.MAX_VALUE : System.nanoTime() + this.timeout.toNanos();
+    final Semaphore permits = new Semaphore(Math.max(1, this.maxConcurrency));
+    final List<CompletableFuture<Boolean>> results = new ArrayList<>(trustMarks.size());
+    try {
+      for (final TrustMark trustMark : trustMarks) {
+        if (!acquire(permits, deadline)) {
+          break;
+        }
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        results.add(result);
+        final Runnable task = () -> {
+          try {
+            result.complete(this.validateTrustMark(trustMark, issuerChains, trustAnchor));
           }
-          //Check signature
-          if (!OidcUtils.verifySignedJWT(delegation, trustMarkOwner.getJwkSet())) {
-            log.debug("Delegation signature validation failed. Skipping");
-            continue;
+          catch (final ChainValidationException | RuntimeException e) {
+            result.completeExceptionally(e);
           }
-          OidcUtils.verifyValidityTime(delegation);
-          // Check that the delegation is issued for the trust mark issuer
-          if (!delegationSubject.equals(trustMark.getIssuer())) {
-            log.debug("Delegation subject does not match trust mark issuer name. Skipping");
-            continue;
+          finally {
+            permits.release();
           }
-          log.debug("Trust mark delegation successfully verified");
+        };
+        try {
+          this.executor.execute(task);
+        }
+        catch (final RejectedExecutionException e) {
+          log.debug("Trust mark validation rejected by executor, validating in calling thread");
+          task.run();
+        }
+      }
+
+      final List<TrustMark> validatedList = new ArrayList<>();
+      int notValidated = 0;
+      for (int i = 0; i < trustMarks.size(); i++) {
+        final Boolean valid = i < results.size() ? await(results.get(i), deadline) : null;
+        if (valid == null) {
+          notValidated++;
+        }
+        else if (valid) {
+          validatedList.add(trustMarks.get(i));
         }
-        // Finally. Verify trust mark status
-        if (this.trustMarkStatusResolver.isStatusActive(trustMark.getTrustMarkId(), trustMark.getSubject(),
-            trustMark.getIssuer())) {
-          validatedList.add(trustMark);
-          log.debug("Trust Mark ID {} is valid", trustMark.getTrustMarkId());
+      }
+      if (notValidated > 0) {
+        if (Thread.currentThread().isInterrupted()) {
+          log.warn("Trust mark validation was interrupted, {} of {} trust marks not validated", notValidated,
+              trustMarks.size());
         }
         else {
-          log.debug("Trust Mark is revoked. Skipping");
+          log.warn("Trust mark validation did not complete within {}, {} of {} trust marks not validated",
+              this.timeout, notValidated, trustMarks.size());
+        }
+      }
+      return validatedList;
+    }
+    finally {
+      // Discard the results of validations still running, which are not interrupted and run to completion
+      results.forEach(result -> result.cancel(false));
+    }
+  }
+
+  /**
+   * Validate a Trust Mark.
+   *
+   * @param trustMark the Trust Mark to validate
+   * @param issuerChains validated issuer chains of the current call
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return true if the Trust Mark is valid
+   * @throws ChainValidationException if the path to the issuer of the Trust Mark is not valid
+   */
+  private boolean validateTrustMark(final TrustMark trustMark,
+      final Map<String, CompletableFuture<IssuerChain>> issuerChains, final String trustAnchor)
+      throws ChainValidationException {
+
+    try {
+      final IssuerChain issuerChain = this.getIssuerChain(issuerChains, trustMark.getIssuer(), trustAnchor);
+      if (issuerChain.getIssuerKeys() == null) {
+        log.debug("No validated path to trust mark issuer. Skipping");
+        return false;
+      }
+
+      // Check trust mark signature against validated leaf entity key set
+      if (!OidcUtils.verifySignedJWT(trustMark.getSignedJWT(), issuerChain.getIssuerKeys())) {
+        log.debug("Trust mark signature validation failed. Skipping");
+        return false;
+      }
+      // Check validity time
+      OidcUtils.verifyValidityTime(trustMark.getSignedJWT());
+
+      // Check that issuer is authorized by trust anchor
+      final EntityStatement trustAnchorStatement = issuerChain.getTrustAnchorStatement();
+      final Map<String, List<String>> trustMarkIssuerMap =
+          Optional.ofNullable(trustAnchorStatement.getTrustMarkIssuers())
+              .orElse(new HashMap<>());
+      if (!trustMarkIssuerMap.containsKey(trustMark.getTrustMarkId())) {
+        log.debug("Trust mark {} is not supported by Trust Anchor. Skipping", trustMark.getTrustMarkId());
+        return false;
+      }
+      final List<String> supportedIssuers = trustMarkIssuerMap.get(trustMark.getTrustMarkId());
+      if (!supportedIssuers.isEmpty()) {
+        if (!supportedIssuers.contains(trustMark.getIssuer())) {
+          log.debug("Trust Mark issuer {} is not supported for trust mark {}. Skipping", trustMark.getIssuer(),
+              trustMark.getTrustMarkId());
+          return false;
+        }
+      }
+
+      // Check trust mark delegation
+      final SignedJWT delegation = trustMark.getDelegation();
+      if (delegation != null) {
+        final Map<String, TrustMarkOwner> trustMarkOwners =
+            Optional.ofNullable(trustAnchorStatement.getTrustMarkOwners())
+                .orElse(new HashMap<>());
+        if (!trustMarkOwners.containsKey(trustMark.getTrustMarkId())) {
+          log.debug(
+              "No trust mark owner for the present delegation is present in the Trust Anchor statement. Skipping");
+          return false;
+        }
+        // Find the trust mark owner for this trust mark ID
+        final TrustMarkOwner trustMarkOwner = trustMarkOwners.get(trustMark.getTrustMarkId());
+        // Check that the trust mark owner subject is the issuer of the delegation JWT
+        final JWTClaimsSet claimsSet = delegation.getJWTClaimsSet();
+        final String delegationSubject = claimsSet.getSubject();
+        final String delegationIssuer = claimsSet.getIssuer();
+        if (!trustMarkOwner.getSubject().equals(delegationIssuer)) {
+          log.debug("Trust mark delegation issuer, does not match the expected trust mark owner. Skipping");
+          return false;
         }
+        //Check signature
+        if (!OidcUtils.verifySignedJWT(delegation, trustMarkOwner.getJwkSet())) {
+          log.debug("Delegation signature validation failed. Skipping");
+          return false;
+        }
+        OidcUtils.verifyValidityTime(delegation);
+        // Check that the delegation is issued for the trust mark issuer
+        if (!delegationSubject.equals(trustMark.getIssuer())) {
+          log.debug("Delegation subject does not match trust mark issuer name. Skipping");
+          return false;
+        }
+        log.debug("Trust mark delegation successfully verified");
       }
-      catch (final PathBuildingException | TrustMarkStatusException | ParseException | NullPointerException |
-          JOSEException e) {
-        log.debug("Failed to validate trust mark: {}", e.getMessage());
+      // Finally. Verify trust mark status
+      if (this.trustMarkStatusResolver.isStatusActive(trustMark.getTrustMarkId(), trustMark.getSubject(),
+          trustMark.getIssuer())) {
+        log.debug("Trust Mark ID {} is valid", trustMark.getTrustMarkId());
+        return true;
       }
+      log.debug("Trust Mark is revoked. Skipping");
+      return false;
+    }
+    catch (final PathBuildingException | TrustMarkStatusException | ParseException | NullPointerException |
+        JOSEException e) {
+      log.debug("Failed to validate trust mark: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Get the validated path of a Trust Mark issuer, building and validating the path the first time the issuer is
+   * requested in a call. Concurrent requests for the same issuer wait for the path to be validated.
+   *
+   * @param issuerChains validated issuer chains of the current call
+   * @param trustMarkIssuer the Entity Identifier of the Trust Mark issuer
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return the validated issuer chain
+   * @throws PathBuildingException if no path to the issuer could be built
+   * @throws ChainValidationException if the path to the issuer is not valid
+   */
+  private IssuerChain getIssuerChain(final Map<String, CompletableFuture<IssuerChain>> issuerChains,
+      final String trustMarkIssuer, final String trustAnchor) throws PathBuildingException, ChainValidationException {
 
+    final CompletableFuture<IssuerChain> future = new CompletableFuture<>();
+    final CompletableFuture<IssuerChain> validating = issuerChains.putIfAbsent(trustMarkIssuer, future);
+    final IssuerChain issuerChain;
+    if (validating == null) {
+      try {
+        issuerChain = this.validateIssuerChain(trustMarkIssuer, trustAnchor);
+        future.complete(issuerChain);
+      }
+      catch (final ChainValidationException | RuntimeException e) {
+        future.completeExceptionally(e);
+        throw e;
+      }
     }
-    return validatedList;
+    else {
+      try {
+        issuerChain = validating.join();
+      }
+      catch (final CompletionException e) {
+        if (e.getCause() instanceof final ChainValidationException chainValidationException) {
+          throw chainValidationException;
+        }
+        if (e.getCause() instanceof final RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw e;
+      }
+    }
+    if (issuerChain.getPathBuildingException() != null) {
+      throw issuerChain.getPathBuildingException();
+    }
+    return issuerChain;
+  }
+
+  /**
+   * Build and validate the path of a Trust Mark issuer.
+   *
+   * @param trustMarkIssuer the Entity Identifier of the Trust Mark issuer
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return the validated issuer chain
+   * @throws ChainValidationException if the path to the issuer is not valid
+   */
+  private IssuerChain validateIssuerChain(final String trustMarkIssuer, final String trustAnchor)
+      throws ChainValidationException {
+
+    try {
+      final List<EntityStatement> trustMarkChain = this.pathBuilder.buildPath(trustMarkIssuer, trustAnchor, true);
+      if (trustMarkChain.isEmpty()) {
+        log.debug("No validation path to trust mark issuer {}", trustMarkIssuer);
+        return new IssuerChain(null, null, null);
+      }
+      final ChainValidationResult validationResult = this.chainValidator.validate(trustMarkChain);
+      final EntityStatement trustMarkIssuerStatement = validationResult.getValidatedChain()
+          .get(validationResult.getValidatedChain().size() - 1);
+      return new IssuerChain(trustMarkChain.get(0), trustMarkIssuerStatement.getJwkSet(), null);
+    }
+    catch (final ParseException e) {
+      log.debug("Failed to parse keys of trust mark issuer {}: {}", trustMarkIssuer, e.getMessage());
+      return new IssuerChain(null, null, null);
+    }
+    catch (final PathBuildingException e) {
+      return new IssuerChain(null, null, e);
+    }
+  }
+
+  /**
+   * Acquire a permit before a deadline.
+   *
+   * @param permits the semaphore to acquire a permit from
+   * @param deadline the deadline in {@link System#nanoTime()} units
+   * @return true if a permit was acquired, false if the deadline passed or the thread was interrupted
+   */
+  private static boolean acquire(final Semaphore permits, final long deadline) {
+    try {
+      return permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Wait for the validation result of a Trust Mark until a deadline. A result that is already available is returned
+   * also after the deadline, or if the thread is interrupted.
+   *
+   * @param result the validation result
+   * @param deadline the deadline in {@link System#nanoTime()} units
+   * @return true if the Trust Mark is valid, false if it is not valid, or null if the result is not available before
+   *     the deadline or before the thread is interrupted
+   * @throws ChainValidationException if the path to the issuer of the Trust Mark is not valid
+   */
+  private static Boolean await(final CompletableFuture<Boolean> result, final long deadline)
+      throws ChainValidationException {
+    try {
+      if (result.isDone()) {
+        return result.get();
+      }
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      return result.get(remaining, TimeUnit.NANOSECONDS);
+    }
+    catch (final TimeoutException e) {
+      return null;
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (final ExecutionException e) {
+      if (e.getCause() instanceof final ChainValidationException chainValidationException) {
+        throw chainValidationException;
+      }
+      if (e.getCause() instanceof final RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * The validated path of a Trust Mark issuer.
+   */
+  @Getter
+  @AllArgsConstructor
+  private static class IssuerChain {
+
+    /** The Trust Anchor statement of the path, or null if there is no validated path to the issuer */
+    private final EntityStatement trustAnchorStatement;
+
+    /** The validated keys of the Trust Mark issuer, or null if there is no validated path to the issuer */
+    private final JWKSet issuerKeys;
 
+    /** Exception thrown when building the path, or null if the path was built */
+    private final PathBuildingException pathBuildingException;
   }
 
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.AsyncFederationChainValidator;
+import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.process.chain.FederationChainValidator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous chain validator running validations of a {@link FederationChainValidator} on an executor.
+ *
+ * <p>
+ * By default, the validator uses its own fixed size thread pool with a bounded queue of waiting validations. When the
+ * queue is full, new validations are rejected immediately instead of queued, which allows callers to shed load rather
+ * than accumulating work they can not complete in time.
+ * </p>
+ * <p>
+ * Validations that are cancelled, or that exceed their deadline, while waiting in the queue are never started. A
+ * validation that is already running is interrupted, but the result of it is discarded even if it runs to completion.
+ * </p>
+ */
+@Slf4j
+public class ExecutorAsyncFederationChainValidator implements AsyncFederationChainValidator, AutoCloseable {
+
+  private final FederationChainValidator validator;
+  private final ExecutorService executor;
+  private final boolean ownExecutor;
+
+  /**
+   * Constructor creating a thread pool for validations.
+   *
+   * @param validator the validator performing chain validation
+   * @param threads the number of validation threads
+   * @param queueCapacity the maximum number of validations waiting for a thread
+   */
+  public ExecutorAsyncFederationChainValidator(final FederationChainValidator validator, final int threads,
+      final int queueCapacity) {
+    this.validator = validator;
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new ValidatorThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    this.ownExecutor = true;
+  }
+
+  /**
+   * Constructor using a provided executor. The executor is not shut down when this validator is closed.
+   *
+   * <p>
+   * To get backpressure, the executor should reject tasks with a {@link RejectedExecutionException} when it can not
+   * accept more work.
+   * </p>
+   *
+   * @param validator the validator performing chain validation
+   * @param executor the executor running validations
+   */
+  public ExecutorAsyncFederationChainValidator(final FederationChainValidator validator,
+      final ExecutorService executor) {
+    this.validator = validator;
+    this.executor = executor;
+    this.ownExecutor = false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<ChainValidationResult> validateAsync(@Nonnull final List<EntityStatement> chain) {
+    return this.validateAsync(chain, null);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<ChainValidationResult> validateAsync(@Nonnull final List<EntityStatement> chain,
+      final Duration timeout) {
+
+    final CompletableFuture<ChainValidationResult> result = new CompletableFuture<>();
+    final Future<?> task;
+    try {
+      task = this.executor.submit(() -> {
+        if (result.isDone()) {
+          // Cancelled or timed out while waiting in the queue
+          return;
+        }
+        try {
+          result.complete(this.validator.validate(chain));
+        }
+        catch (final ChainValidationException | RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+      });
+    }
+    catch (final RejectedExecutionException e) {
+      log.debug("Chain validation rejected, validation queue is full");
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    // Stop the validation task if the result is completed by cancellation or timeout. On normal completion this runs
+    // in the worker thread while the task is still running, so the task must not be cancelled then.
+    result.whenComplete((validationResult, throwable) -> {
+      if (result.isCancelled() || throwable instanceof TimeoutException) {
+        task.cancel(true);
+      }
+    });
+    if (timeout != null) {
+      result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    return result;
+  }
+
+  /**
+   * Shuts down the thread pool of this validator if it was created by this validator. Validations already accepted are
+   * completed.
+   */
+  @Override
+  public void close() {
+    if (this.ownExecutor) {
+      this.executor.shutdown();
+    }
+  }
+
+  /**
+   * Thread factory creating daemon threads for chain validation.
+   */
+  private static class ValidatorThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+    private final int poolNumber = poolCounter.incrementAndGet();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(@Nonnull final Runnable runnable) {
+      final Thread thread = new Thread(runnable,
+          "chain-validator-" + this.poolNumber + "-" + this.threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
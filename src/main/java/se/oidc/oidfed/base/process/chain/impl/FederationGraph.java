@@ -0,0 +1,390 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetchException;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetcher;
+import se.oidc.oidfed.base.process.chain.FederationPathBuilder;
+import se.oidc.oidfed.base.process.chain.PathBuildingException;
+import se.oidc.oidfed.base.process.chain.impl.FetchSupport.StatementLoader;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Federation path builder that looks up paths in an in-memory index of the federation, built by crawling it from its
+ * Trust Anchors.
+ *
+ * <p>
+ * A crawl starts at the Entity Configuration of each Trust Anchor and walks the federation top-down. The subordinates
+ * of each entity with a federation list endpoint are listed, and the Subordinate Statement and Entity Configuration of
+ * each subordinate are fetched. The crawl is breadth-first, so each entity is indexed with its shortest path to the
+ * Trust Anchor. Path constraints are not applied while crawling, but are checked when the path is validated.
+ * </p>
+ * <p>
+ * The index of each Trust Anchor is immutable and is replaced atomically when a crawl of the Trust Anchor completes.
+ * Building a path is a map lookup that never waits for a crawl, and never fetches any statement. Entities that were
+ * not found by the last crawl have no path, and paths including a statement that has expired since the last crawl are
+ * not returned.
+ * </p>
+ * <p>
+ * Re-crawls are incremental. Subordinates are listed again to find added and removed entities, but statements from the
+ * previous crawl are reused unless they expire within the refresh margin. A statement that can not be fetched again is
+ * reused until it expires. If the Entity Configuration of a Trust Anchor can not be fetched, the previous index of the
+ * Trust Anchor is kept.
+ * </p>
+ */
+@Slf4j
+public class FederationGraph implements FederationPathBuilder {
+
+  /** The default margin before the expiration of a statement when it is fetched again */
+  public static final Duration DEFAULT_REFRESH_MARGIN = Duration.ofMinutes(15);
+
+  private final EntityStatementFetcher fetcher;
+  private final List<String> trustAnchors;
+  private final Clock clock;
+  private final AtomicReference<Map<String, Snapshot>> snapshots;
+
+  /**
+   * Statements expiring within this margin from the time of a crawl are fetched again. Default is
+   * {@link #DEFAULT_REFRESH_MARGIN}.
+   */
+  @Setter
+  private Duration refreshMargin = DEFAULT_REFRESH_MARGIN;
+
+  /**
+   * Constructor
+   *
+   * @param fetcher the fetcher used to list subordinates and to fetch statements
+   * @param trustAnchors the Entity Identifiers of the Trust Anchors to crawl from
+   */
+  public FederationGraph(final EntityStatementFetcher fetcher, final Collection<String> trustAnchors) {
+    this(fetcher, trustAnchors, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fetcher the fetcher used to list subordinates and to fetch statements
+   * @param trustAnchors the Entity Identifiers of the Trust Anchors to crawl from
+   * @param clock clock used to determine if statements have expired or are about to expire
+   */
+  public FederationGraph(final EntityStatementFetcher fetcher, final Collection<String> trustAnchors,
+      final Clock clock) {
+    this.fetcher = Objects.requireNonNull(fetcher, "fetcher must not be null");
+    this.trustAnchors = List.copyOf(trustAnchors);
+    this.clock = Objects.requireNonNull(clock, "clock must not be null");
+    this.snapshots = new AtomicReference<>(Map.of());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<EntityStatement> buildPath(final String entityIdentifier, final String trustAnchor,
+      final boolean trustAnchorFirst) throws PathBuildingException {
+
+    final Snapshot snapshot = this.snapshots.get().get(trustAnchor);
+    if (snapshot == null) {
+      throw new PathBuildingException("Trust Anchor " + trustAnchor + " has not been crawled");
+    }
+    final List<EntityStatement> indexedPath = snapshot.getPaths().get(entityIdentifier);
+    if (indexedPath == null) {
+      throw new PathBuildingException("No path from " + entityIdentifier + " to Trust Anchor " + trustAnchor
+          + " in the federation graph");
+    }
+    final Instant now = this.clock.instant();
+    for (final EntityStatement statement : indexedPath) {
+      if (expiresBefore(statement, now)) {
+        throw new PathBuildingException("Path from " + entityIdentifier + " to Trust Anchor " + trustAnchor
+            + " includes an expired statement issued by " + statement.getIssuer() + " for " + statement.getSubject());
+      }
+    }
+    final List<EntityStatement> path = new ArrayList<>(indexedPath);
+    if (trustAnchorFirst) {
+      Collections.reverse(path);
+    }
+    return path;
+  }
+
+  /**
+   * Get the Entity Identifiers of all entities found by the last crawl of a Trust Anchor.
+   *
+   * @param trustAnchor the Entity Identifier of the Trust Anchor
+   * @return unmodifiable set of Entity Identifiers, empty if the Trust Anchor has not been crawled
+   */
+  public Set<String> getEntityIdentifiers(final String trustAnchor) {
+    return Optional.ofNullable(this.snapshots.get().get(trustAnchor))
+        .map(snapshot -> snapshot.getPaths().keySet())
+        .orElse(Set.of());
+  }
+
+  /**
+   * Crawl the federation from all Trust Anchors and replace the index of each Trust Anchor when its crawl completes.
+   * Only one crawl runs at a time.
+   */
+  public synchronized void crawl() {
+    for (final String trustAnchor : this.trustAnchors) {
+      final Snapshot previous = this.snapshots.get().get(trustAnchor);
+      try {
+        final Snapshot snapshot = new Crawl(previous).run(trustAnchor);
+        this.snapshots.updateAndGet(current -> {
+          final Map<String, Snapshot> updated = new HashMap<>(current);
+          updated.put(trustAnchor, snapshot);
+          return Collections.unmodifiableMap(updated);
+        });
+      }
+      catch (final EntityStatementFetchException e) {
+        log.warn("Unable to crawl federation of Trust Anchor {}: {}", trustAnchor, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Crawl the federation periodically, starting immediately.
+   *
+   * @param scheduler the scheduler running the crawls
+   * @param interval the delay between the end of a crawl and the start of the next crawl
+   * @return the scheduled crawls, which are stopped by cancelling it
+   */
+  public ScheduledFuture<?> schedule(final ScheduledExecutorService scheduler, final Duration interval) {
+    return scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        this.crawl();
+      }
+      catch (final RuntimeException e) {
+        log.warn("Federation crawl failed", e);
+      }
+    }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private static boolean expiresBefore(final EntityStatement statement, final Instant instant) {
+    return statement.getExpirationTime() != null && statement.getExpirationTime().toInstant().isBefore(instant);
+  }
+
+  /**
+   * A single crawl of the federation of one Trust Anchor.
+   */
+  private class Crawl {
+
+    /** The index of the previous crawl, or null if this is the first crawl */
+    private final Snapshot previous;
+
+    /** Paths found by this crawl by Entity Identifier */
+    private final Map<String, List<EntityStatement>> paths = new HashMap<>();
+
+    /** Statements used by this crawl by issuer and subject */
+    private final Map<StatementKey, EntityStatement> statements = new HashMap<>();
+
+    /** Subordinate lists used by this crawl by Entity Identifier */
+    private final Map<String, List<String>> subordinates = new HashMap<>();
+
+    /** Statements expiring before this time are fetched again */
+    private final Instant refreshBefore;
+
+    private int fetched;
+    private int reused;
+
+    Crawl(final Snapshot previous) {
+      this.previous = previous;
+      this.refreshBefore = FederationGraph.this.clock.instant().plus(FederationGraph.this.refreshMargin);
+    }
+
+    /**
+     * Crawl the federation of a Trust Anchor.
+     *
+     * @param trustAnchor the Entity Identifier of the Trust Anchor
+     * @return the index of the federation
+     * @throws EntityStatementFetchException if the Entity Configuration of the Trust Anchor can not be fetched
+     */
+    Snapshot run(final String trustAnchor) throws EntityStatementFetchException {
+      final EntityStatement trustAnchorConfiguration = this.getEntityConfiguration(trustAnchor);
+      final Deque<List<EntityStatement>> queue = new ArrayDeque<>();
+      this.addPath(trustAnchor, List.of(trustAnchorConfiguration), queue);
+
+      while (!queue.isEmpty()) {
+        final List<EntityStatement> authorityPath = queue.poll();
+        final EntityStatement authorityConfiguration = authorityPath.get(0);
+        final String authority = authorityConfiguration.getSubject();
+        final String fetchEndpoint = FetchSupport.getFederationEndpoint(authorityConfiguration,
+            PolicyParameterFormats.federation_fetch_endpoint);
+        final String listEndpoint = FetchSupport.getFederationEndpoint(authorityConfiguration,
+            PolicyParameterFormats.federation_list_endpoint);
+        if (fetchEndpoint == null || listEndpoint == null) {
+          continue;
+        }
+        for (final String subject : this.listSubordinates(authority, listEndpoint)) {
+          if (this.paths.containsKey(subject)) {
+            // A shorter or equally short path has already been found
+            continue;
+          }
+          try {
+            final EntityStatement subordinateStatement = this.getSubordinateStatement(authority, fetchEndpoint,
+                subject);
+            final EntityStatement entityConfiguration = this.getEntityConfiguration(subject);
+            final List<EntityStatement> path = new ArrayList<>(authorityPath.size() + 1);
+            path.add(entityConfiguration);
+            path.add(subordinateStatement);
+            // The path of an Intermediate Entity starts with its Entity Configuration, which is not part of the
+            // paths of its subordinates, while the path of the Trust Anchor is only its Entity Configuration
+            path.addAll(authorityPath.size() == 1 ? authorityPath : authorityPath.subList(1, authorityPath.size()));
+            this.addPath(subject, Collections.unmodifiableList(path), queue);
+          }
+          catch (final EntityStatementFetchException e) {
+            log.debug("Unable to crawl subordinate {} of {}: {}", subject, authority, e.getMessage());
+          }
+        }
+      }
+      log.debug("Crawled {} entities of Trust Anchor {}, fetched {} and reused {} statements", this.paths.size(),
+          trustAnchor, this.fetched, this.reused);
+      return new Snapshot(Collections.unmodifiableMap(this.paths), Collections.unmodifiableMap(this.statements),
+          Collections.unmodifiableMap(this.subordinates));
+    }
+
+    private void addPath(final String entityIdentifier, final List<EntityStatement> path,
+        final Deque<List<EntityStatement>> queue) {
+      this.paths.put(entityIdentifier, path);
+      queue.add(path);
+    }
+
+    /**
+     * List the subordinates of an entity, using the previous list if the list can not be fetched.
+     *
+     * @param authority the Entity Identifier of the superior entity
+     * @param listEndpoint the list endpoint of the superior entity
+     * @return the Entity Identifiers of the subordinates, or an empty list if they can not be listed
+     */
+    private List<String> listSubordinates(final String authority, final String listEndpoint) {
+      List<String> list;
+      try {
+        list = List.copyOf(FederationGraph.this.fetcher.fetchSubordinateList(listEndpoint));
+      }
+      catch (final EntityStatementFetchException e) {
+        list = Optional.ofNullable(this.previous)
+            .map(snapshot -> snapshot.getSubordinates().get(authority))
+            .orElse(List.of());
+        log.debug("Unable to list subordinates of {}, using {} previously listed: {}", authority, list.size(),
+            e.getMessage());
+      }
+      this.subordinates.put(authority, list);
+      return list;
+    }
+
+    private EntityStatement getEntityConfiguration(final String entityIdentifier)
+        throws EntityStatementFetchException {
+      return this.reuseOrFetch(entityIdentifier, entityIdentifier,
+          () -> FederationGraph.this.fetcher.fetchEntityConfiguration(entityIdentifier));
+    }
+
+    private EntityStatement getSubordinateStatement(final String authority, final String fetchEndpoint,
+        final String subject) throws EntityStatementFetchException {
+      return this.reuseOrFetch(authority, subject,
+          () -> FederationGraph.this.fetcher.fetchSubordinateStatement(fetchEndpoint, subject));
+    }
+
+    /**
+     * Reuse a statement from the previous crawl unless it expires within the refresh margin, in which case it is
+     * fetched again. If it can not be fetched again it is reused until it has expired.
+     *
+     * @param issuer the issuer of the statement
+     * @param subject the subject of the statement
+     * @param loader fetches the statement
+     * @return the statement
+     * @throws EntityStatementFetchException if the statement can not be fetched and no valid statement can be reused
+     */
+    private EntityStatement reuseOrFetch(final String issuer, final String subject, final StatementLoader loader)
+        throws EntityStatementFetchException {
+      final StatementKey key = new StatementKey(issuer, subject);
+      final EntityStatement previousStatement = Optional.ofNullable(this.previous)
+          .map(snapshot -> snapshot.getStatements().get(key))
+          .orElse(null);
+      EntityStatement statement;
+      if (previousStatement != null && !expiresBefore(previousStatement, this.refreshBefore)) {
+        statement = previousStatement;
+        this.reused++;
+      }
+      else {
+        try {
+          statement = loader.load();
+          if (!issuer.equals(statement.getIssuer()) || !subject.equals(statement.getSubject())) {
+            throw new EntityStatementFetchException("Fetched statement is not issued by " + issuer + " about "
+                + subject);
+          }
+          this.fetched++;
+        }
+        catch (final EntityStatementFetchException e) {
+          if (previousStatement == null
+              || expiresBefore(previousStatement, FederationGraph.this.clock.instant())) {
+            throw e;
+          }
+          log.debug("Unable to fetch statement about {} from {} again, reusing it until it expires: {}", subject,
+              issuer, e.getMessage());
+          statement = previousStatement;
+          this.reused++;
+        }
+      }
+      this.statements.put(key, statement);
+      return statement;
+    }
+  }
+
+  /**
+   * Immutable index of the federation of one Trust Anchor.
+   */
+  @Getter
+  @AllArgsConstructor
+  private static class Snapshot {
+
+    /** Leaf first paths to the Trust Anchor by Entity Identifier */
+    private final Map<String, List<EntityStatement>> paths;
+
+    /** Statements of all paths by issuer and subject */
+    private final Map<StatementKey, EntityStatement> statements;
+
+    /** Subordinates by Entity Identifier of their superior */
+    private final Map<String, List<String>> subordinates;
+  }
+
+  /**
+   * Key identifying a statement by its issuer and subject.
+   *
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   */
+  private record StatementKey(String issuer, String subject) {
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetchException;
+
+import java.util.Optional;
+
+/**
+ * Support for fetching Entity Statements, shared by the path builders of this package.
+ */
+final class FetchSupport {
+
+  private FetchSupport() {
+  }
+
+  /**
+   * Get a federation endpoint from the federation entity metadata of an Entity Configuration.
+   *
+   * @param entityConfiguration the Entity Configuration
+   * @param endpoint the endpoint metadata parameter
+   * @return the endpoint URL, or null if the entity has no such endpoint
+   */
+  static String getFederationEndpoint(final EntityStatement entityConfiguration,
+      final PolicyParameterFormats endpoint) {
+    final Object endpointUrl = Optional.ofNullable(entityConfiguration.getMetadata())
+        .map(metadata -> metadata.getMetadataClaimsObject(EntityMetadataInfoClaim.FEDERATION_ENTITY))
+        .map(federationEntity -> federationEntity.get(endpoint.getParameterName()))
+        .orElse(null);
+    return endpointUrl instanceof final String url ? url : null;
+  }
+
+  /**
+   * Get the federation fetch endpoint of an entity.
+   *
+   * @param entityConfiguration the Entity Configuration of the entity
+   * @return the fetch endpoint URL
+   * @throws EntityStatementFetchException if the entity has no fetch endpoint
+   */
+  static String getFetchEndpoint(final EntityStatement entityConfiguration) throws EntityStatementFetchException {
+    final String fetchEndpoint =
+        getFederationEndpoint(entityConfiguration, PolicyParameterFormats.federation_fetch_endpoint);
+    if (fetchEndpoint == null) {
+      throw new EntityStatementFetchException("Entity " + entityConfiguration.getSubject()
+          + " has no federation fetch endpoint");
+    }
+    return fetchEndpoint;
+  }
+
+  /**
+   * Loads a statement that is not cached or can not be reused.
+   */
+  @FunctionalInterface
+  interface StatementLoader {
+    EntityStatement load() throws EntityStatementFetchException;
+  }
+
+}
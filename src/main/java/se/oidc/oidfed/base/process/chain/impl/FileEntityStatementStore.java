@@ -0,0 +1,454 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import com.nimbusds.jwt.SignedJWT;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.EntityStatementStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Entity Statement store that keeps statements in an append-only segment file.
+ *
+ * <p>
+ * Each stored statement is appended to the file as its compact serialization, preceded by its issuer, subject and
+ * expiration time. When the store is opened, only these record headers are read to build an index of the latest
+ * non-expired record of each issuer and subject. A statement is read from the memory-mapped file and parsed when it is
+ * first requested, so opening a large store does not parse every statement.
+ * </p>
+ * <p>
+ * Replaced and expired records remain in the file until {@link #compact()} is called. A record that was only partly
+ * written, for example if the process was stopped while writing, is discarded when the store is opened. The file is
+ * limited to 2 GB, and statements that do not fit are not stored.
+ * </p>
+ * <p>
+ * By default, each appended record is forced to the storage device before {@link #put(EntityStatement)} returns, so
+ * that stored statements survive a crash of the operating system. If forced writes are turned off with
+ * {@link #setForceWrites(boolean)}, records are only forced when the store is compacted or closed, and records
+ * appended since then may be lost in a crash.
+ * </p>
+ * <p>
+ * An instance of this class is thread safe. Statements are read concurrently, while appending and compaction are
+ * serialized, and compaction waits for reads in progress. A segment file must only be opened by one instance at a time.
+ * </p>
+ */
+@Slf4j
+public class FileEntityStatementStore implements EntityStatementStore, Closeable {
+
+  /** Identifies the file format of a segment file */
+  private static final int MAGIC = 0x4f464553;
+
+  /** The version of the file format */
+  private static final int VERSION = 1;
+
+  /** Size of the file header holding magic and version */
+  private static final int FILE_HEADER_SIZE = 8;
+
+  /** Expiration time written for statements without expiration time */
+  private static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+  private final Path file;
+  private final Clock clock;
+  private final Map<StatementKey, Entry> index;
+  private final ReadWriteLock compactionLock = new ReentrantReadWriteLock();
+  private FileChannel channel;
+  private volatile MappedByteBuffer mapped;
+  private long size;
+
+  /**
+   * Whether each appended record is forced to the storage device before it is indexed. Default is true.
+   */
+  @Setter
+  private boolean forceWrites = true;
+
+  /**
+   * Constructor
+   *
+   * @param file the segment file, which is created if it does not exist
+   * @throws IOException if the file can not be opened or is not a segment file
+   */
+  public FileEntityStatementStore(final Path file) throws IOException {
+    this(file, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param file the segment file, which is created if it does not exist
+   * @param clock clock used to determine if statements have expired
+   * @throws IOException if the file can not be opened or is not a segment file
+   */
+  public FileEntityStatementStore(final Path file, final Clock clock) throws IOException {
+    this.file = Objects.requireNonNull(file, "file must not be null");
+    this.clock = Objects.requireNonNull(clock, "clock must not be null");
+    this.index = new ConcurrentHashMap<>();
+    this.open();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public EntityStatement get(final String issuer, final String subject) {
+    // The read lock keeps the index entry and the mapped file consistent while the file is compacted
+    this.compactionLock.readLock().lock();
+    try {
+      return this.getEntry(issuer, subject);
+    }
+    finally {
+      this.compactionLock.readLock().unlock();
+    }
+  }
+
+  private EntityStatement getEntry(final String issuer, final String subject) {
+    final StatementKey key = new StatementKey(issuer, subject);
+    final Entry entry = this.index.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.getExpirationTime() <= this.clock.millis()) {
+      this.index.remove(key, entry);
+      return null;
+    }
+    EntityStatement statement = entry.getStatement();
+    if (statement == null) {
+      try {
+        statement = new EntityStatement(SignedJWT.parse(this.read(entry)));
+        if (!issuer.equals(statement.getIssuer()) || !subject.equals(statement.getSubject())) {
+          throw new IOException("Stored statement is issued by " + statement.getIssuer() + " about "
+              + statement.getSubject());
+        }
+        entry.setStatement(statement);
+      }
+      catch (final Exception e) {
+        log.warn("Unable to read stored statement about {} from {}: {}", subject, issuer, e.getMessage());
+        this.index.remove(key, entry);
+        return null;
+      }
+    }
+    return statement;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(final EntityStatement statement) {
+    final long expirationTime = Optional.ofNullable(statement.getExpirationTime())
+        .map(Date::getTime)
+        .orElse(NO_EXPIRATION);
+    if (expirationTime <= this.clock.millis()) {
+      return;
+    }
+    final byte[] issuer = statement.getIssuer().getBytes(StandardCharsets.UTF_8);
+    final byte[] subject = statement.getSubject().getBytes(StandardCharsets.UTF_8);
+    final byte[] jwt = statement.getSignedJWT().serialize().getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer record = ByteBuffer.allocate(4 + 8 + 4 + issuer.length + 4 + subject.length + jwt.length);
+    record.putInt(record.capacity() - 4)
+        .putLong(expirationTime)
+        .putInt(issuer.length)
+        .put(issuer)
+        .putInt(subject.length)
+        .put(subject)
+        .put(jwt)
+        .flip();
+    synchronized (this) {
+      if (this.channel == null) {
+        log.debug("Store {} is closed, statement about {} not stored", this.file, statement.getSubject());
+        return;
+      }
+      if (this.size + record.remaining() > Integer.MAX_VALUE) {
+        log.warn("Store {} is full, statement about {} not stored", this.file, statement.getSubject());
+        return;
+      }
+      try {
+        final int offset = (int) this.size;
+        while (record.hasRemaining()) {
+          this.channel.write(record, offset + record.position());
+        }
+        if (this.forceWrites) {
+          this.channel.force(false);
+        }
+        this.size += record.limit();
+        final Entry entry = new Entry(offset, (int) this.size - jwt.length, (int) this.size, expirationTime);
+        entry.setStatement(statement);
+        this.index.put(new StatementKey(statement.getIssuer(), statement.getSubject()), entry);
+      }
+      catch (final IOException e) {
+        log.warn("Unable to store statement about {} in {}: {}", statement.getSubject(), this.file, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Rewrite the segment file with only the latest non-expired record of each issuer and subject.
+   *
+   * @throws IOException if the segment file can not be rewritten
+   */
+  public void compact() throws IOException {
+    this.compactionLock.writeLock().lock();
+    try {
+      synchronized (this) {
+        this.rewrite();
+      }
+    }
+    finally {
+      this.compactionLock.writeLock().unlock();
+    }
+  }
+
+  private void rewrite() throws IOException {
+    final Path compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+    final long now = this.clock.millis();
+    try (final FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      writeFully(out, fileHeader());
+      for (final Map.Entry<StatementKey, Entry> indexEntry : this.index.entrySet()) {
+        final Entry entry = indexEntry.getValue();
+        if (entry.getExpirationTime() > now) {
+          writeFully(out, ByteBuffer.wrap(this.read(entry.getRecordOffset(), entry.getRecordEnd())));
+        }
+      }
+      out.force(true);
+    }
+    this.closeChannel();
+    Files.move(compacted, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.index.clear();
+    this.open();
+  }
+
+  /**
+   * Get the number of statements in the index, including statements that have expired since they were indexed.
+   *
+   * @return the number of indexed statements
+   */
+  public int size() {
+    return this.index.size();
+  }
+
+  /**
+   * Close the segment file. Statements are no longer stored, and statements that have not been read are no longer
+   * available.
+   *
+   * @throws IOException if the file can not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    this.compactionLock.writeLock().lock();
+    try {
+      synchronized (this) {
+        this.closeChannel();
+      }
+    }
+    finally {
+      this.compactionLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Open the segment file and build the index from its record headers.
+   *
+   * @throws IOException if the file can not be opened or is not a segment file
+   */
+  private synchronized void open() throws IOException {
+    this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      if (this.channel.size() < FILE_HEADER_SIZE) {
+        this.channel.truncate(0);
+        writeFully(this.channel, fileHeader());
+      }
+      if (this.channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Segment file " + this.file + " is larger than 2 GB");
+      }
+      this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+      if (this.mapped.getInt(0) != MAGIC || this.mapped.getInt(4) != VERSION) {
+        throw new IOException("File " + this.file + " is not a supported segment file");
+      }
+      this.size = this.scan();
+      if (this.size < this.channel.size()) {
+        log.warn("Discarding incomplete record at offset {} in {}", this.size, this.file);
+        this.channel.truncate(this.size);
+      }
+    }
+    catch (final IOException e) {
+      this.closeChannel();
+      throw e;
+    }
+  }
+
+  /**
+   * Index the record headers of the mapped file. Scanning stops at the first record that is incomplete or has lengths
+   * that do not fit within the record, which is treated as the end of the segment.
+   *
+   * @return the end offset of the last complete record
+   */
+  private long scan() {
+    final long now = this.clock.millis();
+    final int limit = this.mapped.limit();
+    int position = FILE_HEADER_SIZE;
+    while (limit - position >= 4) {
+      final int recordLength = this.mapped.getInt(position);
+      if (recordLength < 16 || recordLength > limit - position - 4) {
+        break;
+      }
+      final int recordEnd = position + 4 + recordLength;
+      final long expirationTime = this.mapped.getLong(position + 4);
+      // Lengths read from a corrupt record may be large enough to overflow int arithmetic
+      final int issuerLength = this.mapped.getInt(position + 12);
+      final long subjectPosition = (long) position + 16 + issuerLength;
+      if (issuerLength < 0 || subjectPosition + 4 > recordEnd) {
+        break;
+      }
+      final int subjectLength = this.mapped.getInt((int) subjectPosition);
+      final long jwtPosition = subjectPosition + 4 + subjectLength;
+      if (subjectLength < 0 || jwtPosition > recordEnd) {
+        break;
+      }
+      final StatementKey key = new StatementKey(this.readString(position + 16, issuerLength),
+          this.readString((int) subjectPosition + 4, subjectLength));
+      // A later record replaces an earlier record, also if the later record has expired
+      if (expirationTime > now) {
+        this.index.put(key, new Entry(position, (int) jwtPosition, recordEnd, expirationTime));
+      }
+      else {
+        this.index.remove(key);
+      }
+      position = recordEnd;
+    }
+    return position;
+  }
+
+  /**
+   * Read the serialized statement of an index entry.
+   *
+   * @param entry the index entry
+   * @return the compact serialization of the statement
+   * @throws IOException if the store is closed or the file can not be mapped
+   */
+  private String read(final Entry entry) throws IOException {
+    return new String(this.read(entry.getStatementOffset(), entry.getRecordEnd()), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read bytes from the mapped file, remapping the file if the bytes were appended after it was mapped.
+   *
+   * @param from the offset of the first byte
+   * @param to the offset after the last byte
+   * @return the bytes
+   * @throws IOException if the store is closed or the file can not be mapped
+   */
+  private byte[] read(final int from, final int to) throws IOException {
+    MappedByteBuffer buffer = this.mapped;
+    if (buffer == null || to > buffer.limit()) {
+      synchronized (this) {
+        if (this.channel == null) {
+          throw new IOException("Store " + this.file + " is closed");
+        }
+        if (to > this.mapped.limit()) {
+          this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+        }
+        buffer = this.mapped;
+      }
+    }
+    final byte[] bytes = new byte[to - from];
+    buffer.get(from, bytes);
+    return bytes;
+  }
+
+  private String readString(final int position, final int length) {
+    final byte[] bytes = new byte[length];
+    this.mapped.get(position, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void closeChannel() throws IOException {
+    this.mapped = null;
+    if (this.channel != null) {
+      try (final FileChannel closing = this.channel) {
+        this.channel = null;
+        closing.force(false);
+      }
+    }
+  }
+
+  private static ByteBuffer fileHeader() {
+    return ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+  }
+
+  private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Index key identifying a statement by its issuer and subject.
+   *
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   */
+  private record StatementKey(String issuer, String subject) {
+  }
+
+  /**
+   * Index entry locating a record and its serialized statement.
+   */
+  @Getter
+  private static class Entry {
+
+    /** Offset of the record in the file */
+    private final int recordOffset;
+
+    /** Offset of the serialized statement in the file */
+    private final int statementOffset;
+
+    /** Offset of the end of the record in the file */
+    private final int recordEnd;
+
+    /** Expiration time of the statement in milliseconds since the epoch */
+    private final long expirationTime;
+
+    /** The parsed statement, or null if it has not been read */
+    @Setter
+    private volatile EntityStatement statement;
+
+    Entry(final int recordOffset, final int statementOffset, final int recordEnd, final long expirationTime) {
+      this.recordOffset = recordOffset;
+      this.statementOffset = statementOffset;
+      this.recordEnd = recordEnd;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+}
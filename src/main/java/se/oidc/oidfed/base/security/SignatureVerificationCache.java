@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.SignedJWT;
+import se.oidc.oidfed.base.utils.BoundedCache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Cache of successful JWS signature verifications.
+ *
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the complete JWS (signing input and signature) together with the JWK
+ * thumbprint of the key that verified the signature. Each entry expires at the expiration time of the signed JWT, so a
+ * cached verification never outlives the data it was computed for. Failed verifications are never cached.
+ * </p>
+ * <p>
+ * An instance of this class is thread safe and may be shared between validators.
+ * </p>
+ */
+public class SignatureVerificationCache {
+
+  /** The default maximum number of cached verifications */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private final BoundedCache<String, Boolean> cache;
+
+  /**
+   * Constructor for a cache with the default maximum size.
+   */
+  public SignatureVerificationCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxSize the maximum number of cached verifications
+   */
+  public SignatureVerificationCache(final int maxSize) {
+    this.cache = new BoundedCache<>(maxSize);
+  }
+
+  /**
+   * Check if a JWS has previously been successfully verified by a specific key.
+   *
+   * @param jwsDigest the digest of the JWS obtained from {@link #getJwsDigest(SignedJWT)}
+   * @param keyThumbprint the JWK thumbprint of the verifying key
+   * @return true if a valid cached verification exists
+   */
+  public boolean isVerified(final String jwsDigest, final String keyThumbprint) {
+    return this.cache.get(this.getCacheKey(jwsDigest, keyThumbprint)) != null;
+  }
+
+  /**
+   * Record a successful signature verification. Verifications of JWTs without expiration time are not cached.
+   *
+   * @param jwsDigest the digest of the JWS obtained from {@link #getJwsDigest(SignedJWT)}
+   * @param keyThumbprint the JWK thumbprint of the verifying key
+   * @param expirationTime the expiration time of the verified JWT
+   */
+  public void addVerified(final String jwsDigest, final String keyThumbprint, final Date expirationTime) {
+    if (expirationTime == null) {
+      return;
+    }
+    this.cache.put(this.getCacheKey(jwsDigest, keyThumbprint), Boolean.TRUE, expirationTime.toInstant());
+  }
+
+  /**
+   * Get the number of cached verifications.
+   *
+   * @return number of cached verifications
+   */
+  public int size() {
+    return this.cache.size();
+  }
+
+  /**
+   * Remove all cached verifications.
+   */
+  public void clear() {
+    this.cache.clear();
+  }
+
+  /**
+   * Calculates the digest identifying a JWS for the purpose of caching its verification result.
+   *
+   * @param signedJWT the signed JWT
+   * @return Base64URL encoded SHA-256 digest of the JWS signing input and signature
+   * @throws JOSEException if the digest algorithm is not available
+   */
+  public static String getJwsDigest(final SignedJWT signedJWT) throws JOSEException {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(signedJWT.getSigningInput());
+      digest.update((byte) '.');
+      digest.update(signedJWT.getSignature().toString().getBytes(StandardCharsets.US_ASCII));
+      return Base64URL.encode(digest.digest()).toString();
+    }
+    catch (final NoSuchAlgorithmException e) {
+      throw new JOSEException("Unable to calculate JWS digest", e);
+    }
+  }
+
+  private String getCacheKey(final String jwsDigest, final String keyThumbprint) {
+    return jwsDigest + "." + keyThumbprint;
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.security;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registry of trusted Trust Anchors and their keys.
+ *
+ * <p>
+ * Trust Anchors are registered by Entity Identifier, and the keys of each Trust Anchor are indexed by kid. This allows a
+ * validator to select the Trust Anchor of a chain from the issuer of its top statement, and the key from the kid of its
+ * JWS header, without searching through the keys of all trusted Trust Anchors.
+ * </p>
+ * <p>
+ * The registered Trust Anchors are held in an immutable map that is replaced atomically on every update. Trust Anchor
+ * keys can therefore be replaced during key rollover while validations are in progress, without locking and without
+ * creating new validators. A validation in progress uses either the old or the new keys, never a mix of both.
+ * </p>
+ * <p>
+ * Every update increments the version of the registry. Components that cache results depending on the registered keys
+ * can compare the version to detect that Trust Anchors have been added, replaced or removed since a result was cached.
+ * </p>
+ * <p>
+ * An instance of this class is thread safe and may be shared between validators.
+ * </p>
+ */
+public class TrustAnchorRegistry {
+
+  private final AtomicReference<Map<String, TrustAnchor>> trustAnchors;
+
+  /** Incremented after every update of the registered Trust Anchors */
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Constructor for an empty registry.
+   */
+  public TrustAnchorRegistry() {
+    this(Map.of());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param trustAnchorKeys map of Trust Anchor Entity Identifiers and their keys
+   */
+  public TrustAnchorRegistry(final Map<String, JWKSet> trustAnchorKeys) {
+    this.trustAnchors = new AtomicReference<>(toTrustAnchorMap(trustAnchorKeys));
+  }
+
+  /**
+   * Get a registered Trust Anchor.
+   *
+   * @param entityId the Entity Identifier of the Trust Anchor
+   * @return the Trust Anchor or null if no Trust Anchor with this Entity Identifier is registered
+   */
+  public TrustAnchor getTrustAnchor(final String entityId) {
+    return entityId == null ? null : this.trustAnchors.get().get(entityId);
+  }
+
+  /**
+   * Get the Entity Identifiers of all registered Trust Anchors.
+   *
+   * @return unmodifiable set of Trust Anchor Entity Identifiers
+   */
+  public Set<String> getTrustAnchorIds() {
+    return this.trustAnchors.get().keySet();
+  }
+
+  /**
+   * Get the version of the registry. The version is incremented after every update of the registered Trust Anchors.
+   * A result obtained using the registry is stale if the version has changed since before the result was obtained.
+   *
+   * @return the current version
+   */
+  public long getVersion() {
+    return this.version.get();
+  }
+
+  /**
+   * Register a Trust Anchor, or replace the keys of a registered Trust Anchor.
+   *
+   * @param entityId the Entity Identifier of the Trust Anchor
+   * @param keys the keys of the Trust Anchor
+   */
+  public void setTrustAnchor(final String entityId, final JWKSet keys) {
+    final TrustAnchor trustAnchor = new TrustAnchor(entityId, keys);
+    this.trustAnchors.updateAndGet(current -> {
+      final Map<String, TrustAnchor> updated = new HashMap<>(current);
+      updated.put(entityId, trustAnchor);
+      return Collections.unmodifiableMap(updated);
+    });
+    this.version.incrementAndGet();
+  }
+
+  /**
+   * Remove a registered Trust Anchor.
+   *
+   * @param entityId the Entity Identifier of the Trust Anchor
+   * @return true if the Trust Anchor was registered
+   */
+  public boolean removeTrustAnchor(final String entityId) {
+    final Map<String, TrustAnchor> previous = this.trustAnchors.getAndUpdate(current -> {
+      if (!current.containsKey(entityId)) {
+        return current;
+      }
+      final Map<String, TrustAnchor> updated = new HashMap<>(current);
+      updated.remove(entityId);
+      return Collections.unmodifiableMap(updated);
+    });
+    if (!previous.containsKey(entityId)) {
+      return false;
+    }
+    this.version.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Replace all registered Trust Anchors in one atomic update.
+   *
+   * @param trustAnchorKeys map of Trust Anchor Entity Identifiers and their keys
+   */
+  public void setTrustAnchors(final Map<String, JWKSet> trustAnchorKeys) {
+    this.trustAnchors.set(toTrustAnchorMap(trustAnchorKeys));
+    this.version.incrementAndGet();
+  }
+
+  private static Map<String, TrustAnchor> toTrustAnchorMap(final Map<String, JWKSet> trustAnchorKeys) {
+    final Map<String, TrustAnchor> trustAnchorMap = new HashMap<>();
+    trustAnchorKeys.forEach((entityId, keys) -> trustAnchorMap.put(entityId, new TrustAnchor(entityId, keys)));
+    return Collections.unmodifiableMap(trustAnchorMap);
+  }
+
+  /**
+   * A registered Trust Anchor with its keys indexed by kid.
+   */
+  public static final class TrustAnchor {
+
+    /** The Entity Identifier of the Trust Anchor */
+    @Getter
+    private final String entityId;
+
+    /** The keys of the Trust Anchor */
+    @Getter
+    private final JWKSet keys;
+
+    /** Key sets holding the keys with a given kid */
+    private final Map<String, JWKSet> keysByKid;
+
+    /**
+     * Constructor
+     *
+     * @param entityId the Entity Identifier of the Trust Anchor
+     * @param keys the keys of the Trust Anchor
+     */
+    TrustAnchor(final String entityId, final JWKSet keys) {
+      this.entityId = Objects.requireNonNull(entityId, "entityId must not be null");
+      this.keys = Objects.requireNonNull(keys, "keys must not be null");
+      final Map<String, List<JWK>> kidKeys = new HashMap<>();
+      for (final JWK jwk : keys.getKeys()) {
+        if (jwk.getKeyID() != null) {
+          kidKeys.computeIfAbsent(jwk.getKeyID(), kid -> new ArrayList<>()).add(jwk);
+        }
+      }
+      final Map<String, JWKSet> kidKeySets = new HashMap<>();
+      kidKeys.forEach((kid, jwks) -> kidKeySets.put(kid, new JWKSet(jwks)));
+      this.keysByKid = Collections.unmodifiableMap(kidKeySets);
+    }
+
+    /**
+     * Get the keys of this Trust Anchor with a given kid.
+     *
+     * @param kid the key identifier
+     * @return the keys with the kid, or an empty key set if no key has this kid
+     */
+    public JWKSet getKeys(final String kid) {
+      final JWKSet kidKeySet = kid == null ? null : this.keysByKid.get(kid);
+      return kidKeySet == null ? new JWKSet() : kidKeySet;
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.utils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, thread safe, in-memory cache where each entry may have its own expiration time.
+ *
+ * <p>
+ * When the number of entries exceeds the maximum size, expired entries are removed first. If this does not free
+ * enough space, the least recently used entries are evicted until the cache holds 90% of its maximum size. Eviction is
+ * done by one thread at a time, so the size bound may be exceeded briefly under heavy concurrent load.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+
+  private final Map<K, CacheEntry<V>> entries;
+  private final int maxSize;
+  private final int evictionTarget;
+  private final Clock clock;
+  private final AtomicLong accessCounter;
+  private final ReentrantLock evictionLock;
+
+  /**
+   * Constructor
+   *
+   * @param maxSize the maximum number of entries in the cache
+   */
+  public BoundedCache(final int maxSize) {
+    this(maxSize, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxSize the maximum number of entries in the cache
+   * @param clock the clock used to determine if entries have expired
+   */
+  public BoundedCache(final int maxSize, final Clock clock) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Cache max size must be at least 1");
+    }
+    this.entries = new ConcurrentHashMap<>();
+    this.maxSize = maxSize;
+    this.evictionTarget = Math.max(1, maxSize - maxSize / 10);
+    this.clock = clock;
+    this.accessCounter = new AtomicLong();
+    this.evictionLock = new ReentrantLock();
+  }
+
+  /**
+   * Get a cached value.
+   *
+   * @param key the key of the cached value
+   * @return the cached value or null if no value is cached or if the cached value has expired
+   */
+  public V get(final K key) {
+    final CacheEntry<V> entry = this.entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.isExpired(this.clock.instant())) {
+      this.entries.remove(key, entry);
+      return null;
+    }
+    entry.lastAccess = this.accessCounter.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Add a value to the cache. Values that are already expired are not stored.
+   *
+   * @param key the key of the value
+   * @param value the value to cache
+   * @param expirationTime the time when the value expires or null if the value never expires
+   */
+  public void put(final K key, final V value, final Instant expirationTime) {
+    if (expirationTime != null && !expirationTime.isAfter(this.clock.instant())) {
+      return;
+    }
+    this.entries.put(key, new CacheEntry<>(value, expirationTime, this.accessCounter.incrementAndGet()));
+    if (this.entries.size() > this.maxSize) {
+      this.evict();
+    }
+  }
+
+  /**
+   * Remove a value from the cache.
+   *
+   * @param key the key of the value to remove
+   */
+  public void remove(final K key) {
+    this.entries.remove(key);
+  }
+
+  /**
+   * Remove all values from the cache.
+   */
+  public void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Get the number of entries in the cache. This count may include expired entries that has not yet been removed.
+   *
+   * @return the number of entries in the cache
+   */
+  public int size() {
+    return this.entries.size();
+  }
+
+  private void evict() {
+    if (!this.evictionLock.tryLock()) {
+      // Another thread is already evicting entries
+      return;
+    }
+    try {
+      final Instant now = this.clock.instant();
+      this.entries.values().removeIf(entry -> entry.isExpired(now));
+      final int excess = this.entries.size() - this.evictionTarget;
+      if (excess > 0) {
+        // Sort a copy of the access times, as concurrent reads update them and would break the sort order
+        final List<Map.Entry<K, Long>> accessTimes = new ArrayList<>(this.entries.size());
+        this.entries.forEach((key, entry) -> accessTimes.add(Map.entry(key, entry.lastAccess)));
+        accessTimes.sort(Map.Entry.comparingByValue());
+        accessTimes.subList(0, Math.min(excess, accessTimes.size()))
+            .forEach(accessTime -> this.entries.remove(accessTime.getKey()));
+      }
+    }
+    finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  private static class CacheEntry<V> {
+
+    private final V value;
+    private final Instant expirationTime;
+    private volatile long lastAccess;
+
+    private CacheEntry(final V value, final Instant expirationTime, final long lastAccess) {
+      this.value = value;
+      this.expirationTime = expirationTime;
+      this.lastAccess = lastAccess;
+    }
+
+    private boolean isExpired(final Instant now) {
+      return this.expirationTime != null && !now.isBefore(this.expirationTime);
+    }
+  }
+
+}
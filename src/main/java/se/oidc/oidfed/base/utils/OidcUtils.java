@@ -22,22 +22,31 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.crypto.ECDSAVerifier;
 import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyType;
+import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import se.oidc.oidfed.base.configuration.ValueType;
 import se.oidc.oidfed.base.process.metadata.PolicyTranslationException;
+import se.oidc.oidfed.base.security.SignatureVerificationCache;
 
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -53,6 +62,10 @@ public class OidcUtils {
       "iss", "sub", "iat", "exp", "jti", "aud", "nbf"
   );
   public static final String URI_REGEXP = "^(http:\\/\\/|https:\\/\\/|urn:)[\\w\\W]*$";
+  /** The maximum number of JWS verifiers kept in the verifier pool */
+  public static final int VERIFIER_POOL_MAX_SIZE = 1000;
+
+  private static final BoundedCache<String, JWSVerifier> VERIFIER_POOL = new BoundedCache<>(VERIFIER_POOL_MAX_SIZE);
 
   public static ObjectMapper getOidcObjectMapper() {
     final ObjectMapper objectMapper = new ObjectMapper();
@@ -325,11 +338,36 @@ public class OidcUtils {
   /**
    * Retrieves a JWS verifier based on the provided JWK key. Supports EC and RSA keys.
    *
+   * <p>
+   * Verifiers are immutable and thread safe. Created verifiers are kept in a bounded pool keyed by the JWK thumbprint
+   * of the key, so that the conversion from JWK to a public key object is done only once for each key.
+   * </p>
+   *
    * @param jwk the JWK key to obtain a JWS verifier for
    * @return a JWS verifier for the provided JWK key
    * @throws JOSEException if an unsupported key type is encountered
    */
   public static JWSVerifier getVerifier(final JWK jwk) throws JOSEException {
+    return getVerifier(jwk, jwk.computeThumbprint().toString());
+  }
+
+  /**
+   * Removes all verifiers from the pool of verifiers used by {@link #getVerifier(JWK)}.
+   */
+  public static void clearVerifierPool() {
+    VERIFIER_POOL.clear();
+  }
+
+  private static JWSVerifier getVerifier(final JWK jwk, final String thumbprint) throws JOSEException {
+    JWSVerifier verifier = VERIFIER_POOL.get(thumbprint);
+    if (verifier == null) {
+      verifier = createVerifier(jwk);
+      VERIFIER_POOL.put(thumbprint, verifier, null);
+    }
+    return verifier;
+  }
+
+  private static JWSVerifier createVerifier(final JWK jwk) throws JOSEException {
 
     final KeyType keyType = jwk.getKeyType();
     if (keyType.equals(KeyType.EC)) {
@@ -350,15 +388,179 @@ public class OidcUtils {
    * @throws JOSEException if an unsupported key type is encountered during verification
    */
   public static boolean verifySignedJWT(final SignedJWT signedJWT, final JWKSet jwkSet) throws JOSEException {
+    return verifySignedJWT(signedJWT, jwkSet, false, null);
+  }
+
+  /**
+   * Verify the signed JWT using a JWK set, reusing previous successful verifications stored in a cache.
+   *
+   * @param signedJWT the SignedJWT to verify
+   * @param jwkSet the JWKSet containing keys for verification
+   * @param verificationCache cache of successful verifications, or null to always verify the signature
+   * @return true if the JWT signature is valid with any of the keys in the JWK set, false otherwise
+   * @throws JOSEException if an unsupported key type is encountered during verification
+   */
+  public static boolean verifySignedJWT(final SignedJWT signedJWT, final JWKSet jwkSet,
+      final SignatureVerificationCache verificationCache) throws JOSEException {
+    return verifySignedJWT(signedJWT, jwkSet, false, verificationCache);
+  }
+
+  /**
+   * Verify the signed JWT using a JWK set, reusing previous successful verifications stored in a cache.
+   *
+   * @param signedJWT the SignedJWT to verify
+   * @param jwkSet the JWKSet containing keys for verification
+   * @param strictKeySelection true to only use keys identified by the kid header parameter
+   * @param verificationCache cache of successful verifications, or null to always verify the signature
+   * @return true if the JWT signature is valid with any of the selected keys, false otherwise
+   * @throws JOSEException if an unsupported key type is encountered during verification
+   * @see #getVerifyingKey(SignedJWT, JWKSet, boolean, SignatureVerificationCache)
+   */
+  public static boolean verifySignedJWT(final SignedJWT signedJWT, final JWKSet jwkSet,
+      final boolean strictKeySelection, final SignatureVerificationCache verificationCache) throws JOSEException {
+    return getVerifyingKey(signedJWT, jwkSet, strictKeySelection, verificationCache) != null;
+  }
+
+  /**
+   * Verify the signed JWT using a JWK set and return the key that verified the signature.
+   *
+   * <p>
+   * Only keys selected by {@link #selectVerificationKeys(JWSHeader, JWKSet, boolean)} are used to verify the
+   * signature. A cached verification is only used if it was made for the exact same JWS using one of these keys.
+   * Successful verifications that are not already cached are added to the cache.
+   * </p>
+   *
+   * @param signedJWT the SignedJWT to verify
+   * @param jwkSet the JWKSet containing keys for verification
+   * @param strictKeySelection true to only use keys identified by the kid header parameter
+   * @param verificationCache cache of successful verifications, or null to always verify the signature
+   * @return the key that verified the signature, or null if the signature could not be verified by any selected key
+   * @throws JOSEException if an unsupported key type is encountered during verification
+   */
+  public static JWK getVerifyingKey(final SignedJWT signedJWT, final JWKSet jwkSet,
+      final boolean strictKeySelection, final SignatureVerificationCache verificationCache) throws JOSEException {
+    return findVerifyingKey(signedJWT, jwkSet, strictKeySelection, verificationCache).key();
+  }
+
+  /**
+   * Verify the signed JWT using a JWK set in the same way as
+   * {@link #getVerifyingKey(SignedJWT, JWKSet, boolean, SignatureVerificationCache)}, and also report whether the
+   * verifying key was found in the verification cache.
+   *
+   * @param signedJWT the SignedJWT to verify
+   * @param jwkSet the JWKSet containing keys for verification
+   * @param strictKeySelection true to only use keys identified by the kid header parameter
+   * @param verificationCache cache of successful verifications, or null to always verify the signature
+   * @return the verifying key and whether it was found in the cache
+   * @throws JOSEException if an unsupported key type is encountered during verification
+   */
+  public static VerifyingKey findVerifyingKey(final SignedJWT signedJWT, final JWKSet jwkSet,
+      final boolean strictKeySelection, final SignatureVerificationCache verificationCache) throws JOSEException {
+
+    final List<JWK> keys = selectVerificationKeys(signedJWT.getHeader(), jwkSet, strictKeySelection);
+    if (keys.isEmpty()) {
+      return new VerifyingKey(null, false);
+    }
+    final List<String> thumbprints = new ArrayList<>();
+    for (final JWK jwk : keys) {
+      thumbprints.add(jwk.computeThumbprint().toString());
+    }
 
+    final String jwsDigest = verificationCache != null
+        ? SignatureVerificationCache.getJwsDigest(signedJWT)
+        : null;
+    if (verificationCache != null) {
+      for (int i = 0; i < keys.size(); i++) {
+        if (verificationCache.isVerified(jwsDigest, thumbprints.get(i))) {
+          return new VerifyingKey(keys.get(i), true);
+        }
+      }
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      if (signedJWT.verify(getVerifier(keys.get(i), thumbprints.get(i)))) {
+        if (verificationCache != null) {
+          verificationCache.addVerified(jwsDigest, thumbprints.get(i), getExpirationTime(signedJWT));
+        }
+        return new VerifyingKey(keys.get(i), false);
+      }
+    }
+    return new VerifyingKey(null, false);
+  }
+
+  /**
+   * The outcome of looking up the key that verifies a signature.
+   *
+   * @param key the key that verified the signature, or null if no selected key verified the signature
+   * @param cached true if the verification was found in the verification cache
+   */
+  public record VerifyingKey(JWK key, boolean cached) {
+  }
+
+  /**
+   * Selects the keys of a JWK set that may be used to verify a JWS with a given header, in the order they should be
+   * tried.
+   *
+   * <p>
+   * A key is only selected if its key type and (for EC keys) curve match the JWS algorithm, and if any declared key
+   * algorithm or key use allows it to verify the JWS. Keys with a kid matching the kid of the header are placed first.
+   * </p>
+   * <p>
+   * In strict mode, only keys with a kid matching the kid of the header are selected, and no keys are selected if the
+   * header has no kid. This limits verification to a single signature check for key sets with unique key identifiers.
+   * </p>
+   *
+   * @param header the JWS header
+   * @param jwkSet the JWK set to select keys from
+   * @param strict true to only select keys identified by the kid header parameter
+   * @return list of selected keys, empty if no key can be used to verify the JWS
+   */
+  public static List<JWK> selectVerificationKeys(final JWSHeader header, final JWKSet jwkSet, final boolean strict) {
+    final String kid = header.getKeyID();
+    if (strict && kid == null) {
+      return List.of();
+    }
+    final List<JWK> kidMatchingKeys = new ArrayList<>();
+    final List<JWK> otherKeys = new ArrayList<>();
     for (final JWK jwk : jwkSet.getKeys()) {
-      if (signedJWT.verify(getVerifier(jwk))) {
-        return true;
+      if (!isCompatibleKey(jwk, header.getAlgorithm())) {
+        continue;
+      }
+      if (kid != null && kid.equals(jwk.getKeyID())) {
+        kidMatchingKeys.add(jwk);
+      }
+      else if (!strict) {
+        otherKeys.add(jwk);
       }
     }
+    kidMatchingKeys.addAll(otherKeys);
+    return kidMatchingKeys;
+  }
+
+  private static boolean isCompatibleKey(final JWK jwk, final JWSAlgorithm algorithm) {
+    if (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse())) {
+      return false;
+    }
+    if (jwk.getAlgorithm() != null && !jwk.getAlgorithm().equals(algorithm)) {
+      return false;
+    }
+    if (JWSAlgorithm.Family.EC.contains(algorithm)) {
+      return jwk instanceof final ECKey ecKey && Curve.forJWSAlgorithm(algorithm).contains(ecKey.getCurve());
+    }
+    if (JWSAlgorithm.Family.RSA.contains(algorithm)) {
+      return KeyType.RSA.equals(jwk.getKeyType());
+    }
     return false;
   }
 
+  private static Date getExpirationTime(final SignedJWT signedJWT) {
+    try {
+      return signedJWT.getJWTClaimsSet().getExpirationTime();
+    }
+    catch (final ParseException e) {
+      return null;
+    }
+  }
+
   /**
    * Verify the validity time of a SignedJWT by checking the issue time and expiration time against the current time.
    * Throws a ParseException if parsing fails and JOSEException if any validation check fails.
@@ -414,6 +616,42 @@ public class OidcUtils {
     return OBJECT_MAPPER.convertValue(object, new TypeReference<>() {});
   }
 
+  /**
+   * Creates a mutable copy of a JSON object map, where nested JSON objects and arrays are copied as well.
+   *
+   * @param jsonObject the JSON object map
+   * @return copy of the JSON object map, or null if the JSON object map is null
+   */
+  public static Map<String, Object> copyJsonObject(final Map<String, Object> jsonObject) {
+    if (jsonObject == null) {
+      return null;
+    }
+    final Map<String, Object> copy = new HashMap<>(jsonObject);
+    copy.replaceAll((name, value) -> copyJsonValue(value));
+    return copy;
+  }
+
+  /**
+   * Creates a mutable copy of a JSON value. JSON objects and arrays are copied recursively, other values are immutable
+   * and returned as is.
+   *
+   * @param value the JSON value
+   * @return copy of the value
+   */
+  public static Object copyJsonValue(final Object value) {
+    if (value instanceof final Map<?, ?> mapValue) {
+      final Map<Object, Object> copy = new LinkedHashMap<>(mapValue.size());
+      mapValue.forEach((name, nestedValue) -> copy.put(name, copyJsonValue(nestedValue)));
+      return copy;
+    }
+    if (value instanceof final Collection<?> collectionValue) {
+      final List<Object> copy = new ArrayList<>(collectionValue.size());
+      collectionValue.forEach(nestedValue -> copy.add(copyJsonValue(nestedValue)));
+      return copy;
+    }
+    return value;
+  }
+
   /**
    * Converts a JSON object map to a target class
    *
@@ -48,6 +48,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * Tests for EntityStatement
@@ -161,6 +162,12 @@ class EntityStatementTest {
 
     log.info("Parsed OP metadata:\n{}", OidcUtils.OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(opMetadataObject));
 
+    // The JWK sets are parsed once and then reused
+    assertEquals(1, parsedEntityStatement.getJwkSet().getKeys().size());
+    assertSame(parsedEntityStatement.getJwkSet(), parsedEntityStatement.getJwkSet());
+    final TrustMarkOwner trustMarkOwner = parsedEntityStatement.getTrustMarkOwners().get("https://example.com/tm1");
+    assertSame(trustMarkOwner.getJwkSet(), trustMarkOwner.getJwkSet());
+
   }
 
   private JWKSet getJwkSet(final X509Certificate... certificate) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.data.federation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for naming constraints matching
+ */
+class NamingConstraintsMatcherTest {
+
+  @Test
+  void testMatching() {
+
+    final NamingConstraintsMatcher matcher = NamingConstraintsMatcher.compile(NamingConstraints.builder()
+        .permitted(List.of("https://example.com", "https://kommun.example.org/", "https://kommun.example.org/a/b"))
+        .excluded(List.of("https://example.com/excluded"))
+        .build());
+
+    assertTrue(matcher.isPermitted("https://example.com"));
+    assertTrue(matcher.isPermitted("https://example.com/op1"));
+    assertTrue(matcher.isPermitted("https://example.community"));
+    assertTrue(matcher.isPermitted("https://kommun.example.org/a"));
+    assertFalse(matcher.isPermitted("https://kommun.example.org"));
+    assertFalse(matcher.isPermitted("https://example.org"));
+    assertFalse(matcher.isPermitted("https://example.co"));
+    assertFalse(matcher.isPermitted(""));
+
+    assertTrue(matcher.isExcluded("https://example.com/excluded"));
+    assertTrue(matcher.isExcluded("https://example.com/excluded/op1"));
+    assertFalse(matcher.isExcluded("https://example.com/op1"));
+
+    // Absent constraints permit everything and exclude nothing
+    final NamingConstraintsMatcher emptyMatcher = NamingConstraintsMatcher.compile(NamingConstraints.builder().build());
+    assertTrue(emptyMatcher.isPermitted("https://example.org"));
+    assertFalse(emptyMatcher.isExcluded("https://example.org"));
+    assertSame(NamingConstraintsMatcher.EMPTY, NamingConstraintsMatcher.compile(null));
+
+    // Empty name is a prefix of all identifiers
+    assertTrue(NamingConstraintsMatcher.compile(NamingConstraints.builder()
+        .excluded(List.of(""))
+        .build()).isExcluded("https://example.com"));
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.data.federation.TrustMarkClaim;
+import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationFailureReason;
+import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.security.TrustAnchorRegistry;
+import se.oidc.oidfed.base.testdata.TestClock;
+import se.oidc.oidfed.base.testdata.TestCredentials;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the caching chain validator
+ */
+class CachingFederationChainValidatorTest {
+
+  @Test
+  void testCachedValidation() throws Exception {
+
+    final EntityStatement ta1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final EntityStatement ta1Op1 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_op1_direct().build());
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+
+    final AtomicInteger validations = new AtomicInteger();
+    final TestClock clock = new TestClock();
+    final CachingFederationChainValidator validator = new CachingFederationChainValidator(chain -> {
+      validations.incrementAndGet();
+      if (chain.size() < 3) {
+        throw new ChainValidationException("Chain too short");
+      }
+      return ChainValidationResult.builder().validatedChain(chain).build();
+    }, 100, Duration.ofSeconds(60), Duration.ofSeconds(5), clock);
+
+    // Same statements in any order share the cached result
+    final ChainValidationResult result = validator.validate(List.of(ta1Conf, ta1Op1, op1Conf));
+    assertEquals(result, validator.validate(List.of(op1Conf, ta1Op1, ta1Conf)));
+    assertEquals(1, validations.get());
+
+    // Result expires at the maximum time to live
+    clock.advance(Duration.ofSeconds(61));
+    validator.validate(List.of(ta1Conf, ta1Op1, op1Conf));
+    assertEquals(2, validations.get());
+
+    // Failures are cached for a short time
+    final ChainValidationException exception =
+        assertThrows(ChainValidationException.class, () -> validator.validate(List.of(ta1Conf, ta1Op1)));
+    final ChainValidationException cachedException =
+        assertThrows(ChainValidationException.class, () -> validator.validate(List.of(ta1Op1, ta1Conf)));
+    assertNotSame(exception, cachedException);
+    assertSame(exception, cachedException.getCause());
+    assertEquals(exception.getMessage(), cachedException.getMessage());
+    assertNotSame(cachedException,
+        assertThrows(ChainValidationException.class, () -> validator.validate(List.of(ta1Op1, ta1Conf))));
+    assertEquals(3, validations.get());
+    clock.advance(Duration.ofSeconds(6));
+    assertThrows(ChainValidationException.class, () -> validator.validate(List.of(ta1Conf, ta1Op1)));
+    assertEquals(4, validations.get());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testCachedResultIsolation() throws Exception {
+
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_op1_direct().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()));
+    final CachingFederationChainValidator validator = new CachingFederationChainValidator(
+        c -> ChainValidationResult.builder()
+            .validatedChain(c)
+            .policyProcessedMetadata(EntityMetadataInfoClaim.builder()
+                .opMetadataObject(new HashMap<>(Map.of("claims_supported", new ArrayList<>(List.of("claim1")))))
+                .build())
+            .subjectTrustMarks(new ArrayList<>(List.of(new TrustMarkClaim("id", "mark"))))
+            .build());
+
+    // Modifying a returned result does not change the cached result
+    final ChainValidationResult result = validator.validate(chain);
+    final ChainValidationResult hit = validator.validate(chain);
+    assertNotSame(result, hit);
+    hit.getValidatedChain().clear();
+    ((List<Object>) hit.getPolicyProcessedMetadata().getOpMetadataObject().get("claims_supported")).add("claim2");
+    hit.getPolicyProcessedMetadata().getOpMetadataObject().put("issuer", "https://example.com/op");
+    hit.getSubjectTrustMarks().get(0).setTrustMark("modified");
+
+    final ChainValidationResult nextHit = validator.validate(chain);
+    assertEquals(3, nextHit.getValidatedChain().size());
+    assertEquals(Map.of("claims_supported", List.of("claim1")),
+        nextHit.getPolicyProcessedMetadata().getOpMetadataObject());
+    assertEquals("mark", nextHit.getSubjectTrustMarks().get(0).getTrustMark());
+  }
+
+  @Test
+  void testTrustAnchorRegistryUpdate() throws Exception {
+
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_op1_direct().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()));
+
+    final TrustAnchorRegistry registry = new TrustAnchorRegistry(Map.of(
+        "https://example.com/ta1", TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate())));
+    final AtomicInteger validations = new AtomicInteger();
+    final CachingFederationChainValidator validator = new CachingFederationChainValidator(c -> {
+      validations.incrementAndGet();
+      if (registry.getTrustAnchor("https://example.com/ta1") == null) {
+        throw new ChainValidationException(ChainValidationFailureReason.UNTRUSTED_TRUST_ANCHOR, "Unknown Trust Anchor");
+      }
+      return ChainValidationResult.builder().validatedChain(c).build();
+    });
+    validator.setTrustAnchorRegistry(registry);
+
+    validator.validate(chain);
+    validator.validate(chain);
+    assertEquals(1, validations.get());
+
+    // Removing the Trust Anchor invalidates the cached result
+    registry.removeTrustAnchor("https://example.com/ta1");
+    final ChainValidationException exception =
+        assertThrows(ChainValidationException.class, () -> validator.validate(chain));
+    assertEquals(ChainValidationFailureReason.UNTRUSTED_TRUST_ANCHOR, exception.getReason());
+    assertEquals(2, validations.get());
+
+    // The cached failure keeps the reason of the original failure
+    assertEquals(ChainValidationFailureReason.UNTRUSTED_TRUST_ANCHOR,
+        assertThrows(ChainValidationException.class, () -> validator.validate(chain)).getReason());
+    assertEquals(2, validations.get());
+
+    // Adding the Trust Anchor again invalidates the cached failure
+    registry.setTrustAnchor("https://example.com/ta1", TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()));
+    validator.validate(chain);
+    assertEquals(3, validations.get());
+  }
+
+}
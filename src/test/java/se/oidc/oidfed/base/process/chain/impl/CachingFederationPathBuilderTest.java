@@ -0,0 +1,388 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.data.federation.ConstraintsClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationStage;
+import se.oidc.oidfed.base.process.chain.PathBuildingException;
+import se.oidc.oidfed.base.process.metadata.impl.DefaultPolicyOperatorFactory;
+import se.oidc.oidfed.base.process.metadata.impl.StandardMetadataPolicySerializer;
+import se.oidc.oidfed.base.testdata.InMemoryEntityStatementFetcher;
+import se.oidc.oidfed.base.testdata.TestClock;
+import se.oidc.oidfed.base.testdata.TestCredentials;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+import se.oidc.oidfed.base.testdata.TestFederation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the caching federation path builder
+ */
+class CachingFederationPathBuilderTest {
+
+  @Test
+  void testBuildPath() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+
+    final List<EntityStatement> path = pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, false);
+    assertEquals(
+        List.of(TestFederation.OP1, TestFederation.IE2, TestFederation.IE1, TestFederation.TA1, TestFederation.TA1),
+        path.stream().map(EntityStatement::getIssuer).toList());
+    final List<EntityStatement> taFirstPath = pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+    assertSame(path.get(0), taFirstPath.get(4));
+
+    // The built path is a valid chain
+    assertEquals(5, getValidator().validate(taFirstPath).getValidatedChain().size());
+
+    // Path of the Trust Anchor itself
+    assertEquals(1, pathBuilder.buildPath(TestFederation.TA1, TestFederation.TA1, true).size());
+
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, "https://example.com/unknown", true));
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath("https://example.com/unknown", TestFederation.TA1, true));
+  }
+
+  @Test
+  void testCachedFetches() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+
+    pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+    final int fetchCount = fetcher.getFetchCount();
+    pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+
+    // The failed fetch of the missing statement from ie1 is not repeated either
+    assertEquals(fetchCount, fetcher.getFetchCount());
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE1, TestFederation.OP1));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE2, TestFederation.OP1));
+
+    pathBuilder.clear();
+    pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+    assertEquals(2 * fetchCount, fetcher.getFetchCount());
+  }
+
+  @Test
+  void testCoalescedFetches() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    fetcher.setLatencyMillis(50);
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+
+    final int threads = 20;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<List<EntityStatement>>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+        }));
+      }
+      start.countDown();
+      for (final Future<List<EntityStatement>> result : results) {
+        assertEquals(5, result.get().size());
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    // Each statement on the path is fetched once
+    assertEquals(1, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE2, TestFederation.IE2));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE2, TestFederation.OP1));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE1, TestFederation.IE2));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.TA1, TestFederation.IE1));
+  }
+
+  @Test
+  void testBreadthFirstDiscovery() throws Exception {
+    // Adds a shorter path op1 - ie2 - ta1 next to the path op1 - ie2 - ie1 - ta1
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create()
+        .add(TestEntityStatements.getEntityStatement(ta1_ie2_statement().build()));
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final CachingFederationPathBuilder depthFirst = new CachingFederationPathBuilder(fetcher);
+      assertEquals(5, depthFirst.buildPath(TestFederation.OP1, TestFederation.TA1, true).size());
+
+      final CachingFederationPathBuilder breadthFirst = new CachingFederationPathBuilder(fetcher);
+      breadthFirst.setDiscoveryExecutor(executor);
+      breadthFirst.setMaxFanOut(1);
+      final List<EntityStatement> path = breadthFirst.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+      assertEquals(List.of(TestFederation.TA1, TestFederation.TA1, TestFederation.IE2, TestFederation.OP1),
+          path.stream().map(EntityStatement::getIssuer).toList());
+      assertEquals(4, getValidator().validate(path).getValidatedChain().size());
+
+      assertThrows(PathBuildingException.class,
+          () -> breadthFirst.buildPath(TestFederation.OP1, "https://example.com/unknown", true));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testBreadthFirstMaxPathLength() throws Exception {
+    // The shorter path through ta1 - ie2 is not allowed as ie2 may not have subordinate intermediates
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create()
+        .add(TestEntityStatements.getEntityStatement(ta1_ie2_statement()
+            .constraintsClaim(ConstraintsClaim.builder().maxPathLength(0).build())
+            .build()));
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+      pathBuilder.setDiscoveryExecutor(executor);
+
+      final List<EntityStatement> path = pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, false);
+      assertEquals(
+          List.of(TestFederation.OP1, TestFederation.IE2, TestFederation.IE1, TestFederation.TA1, TestFederation.TA1),
+          path.stream().map(EntityStatement::getIssuer).toList());
+
+      // The pruned path would not have been accepted by the validator
+      final List<EntityStatement> prunedPath = List.of(
+          fetcher.fetchEntityConfiguration(TestFederation.TA1),
+          fetcher.fetchSubordinateStatement("https://example.com/ta1/fetch", TestFederation.IE2),
+          fetcher.fetchSubordinateStatement("https://example.com/ie2/fetch", TestFederation.OP1),
+          fetcher.fetchEntityConfiguration(TestFederation.OP1));
+      assertEquals(ChainValidationStage.CONSTRAINTS,
+          assertThrows(ChainValidationException.class, () -> getValidator().validate(prunedPath)).getStage());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testCachedFailures() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher, 100,
+        Duration.ofSeconds(10), Duration.ofSeconds(30), clock);
+    final String unknownTrustAnchor = "https://example.com/unknown";
+
+    final PathBuildingException failure = assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, unknownTrustAnchor, true));
+    final int fetchCount = fetcher.getFetchCount();
+
+    // The cached failure is reported without fetching
+    final PathBuildingException cachedFailure = assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, unknownTrustAnchor, true));
+    assertSame(failure, cachedFailure.getCause());
+    assertEquals(fetchCount, fetcher.getFetchCount());
+
+    // Other paths are not affected
+    assertEquals(5, pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true).size());
+
+    // Path building is retried after 10 seconds, and then after 20 seconds
+    clock.advance(Duration.ofSeconds(11));
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, unknownTrustAnchor, true));
+    final int retryFetchCount = fetcher.getFetchCount();
+    assertTrue(retryFetchCount > fetchCount);
+    clock.advance(Duration.ofSeconds(11));
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, unknownTrustAnchor, true));
+    assertEquals(retryFetchCount, fetcher.getFetchCount());
+    clock.advance(Duration.ofSeconds(10));
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, unknownTrustAnchor, true));
+    assertTrue(fetcher.getFetchCount() > retryFetchCount);
+
+    // An entity that is down is not fetched again until the retry time has passed
+    fetcher.remove(TestFederation.IE1, TestFederation.IE1);
+    pathBuilder.clear();
+    final int ie1FetchCount = fetcher.getFetchCount(TestFederation.IE1, TestFederation.IE1);
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true));
+    assertEquals(ie1FetchCount + 1, fetcher.getFetchCount(TestFederation.IE1, TestFederation.IE1));
+    assertThrows(PathBuildingException.class,
+        () -> pathBuilder.buildPath(TestFederation.IE2, TestFederation.TA1, true));
+    assertEquals(ie1FetchCount + 1, fetcher.getFetchCount(TestFederation.IE1, TestFederation.IE1));
+  }
+
+  @Test
+  void testRefreshAhead() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher, 100, clock);
+    pathBuilder.setRefreshAheadFraction(0.5);
+    pathBuilder.setRefreshJitter(0);
+
+    final EntityStatement op1 = pathBuilder.getEntityConfiguration(TestFederation.OP1);
+    assertEquals(1, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+
+    // Without a refresh executor the cached copy is served until it expires
+    clock.advance(Duration.ofSeconds(310));
+    assertSame(op1, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+
+    // The statement is refreshed when requested after half its lifetime
+    final EntityStatement reissued = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf()
+        .lifetime(Duration.ofSeconds(900))
+        .build());
+    fetcher.add(reissued);
+    pathBuilder.setRefreshExecutor(Runnable::run);
+    assertSame(op1, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(2, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(2, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+
+    // A failed refresh keeps the cached copy and postpones the next refresh
+    fetcher.remove(TestFederation.OP1, TestFederation.OP1);
+    clock.advance(Duration.ofSeconds(150));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(3, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(3, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+
+    // A statement that has not been reissued postpones the next refresh halfway to its expiration
+    fetcher.add(reissued);
+    clock.advance(Duration.ofSeconds(230));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(4, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(4, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+
+    // A statement reissued later in the lifetime of the cached copy is refreshed before the cached copy expires
+    final EntityStatement reissuedAgain = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf()
+        .lifetime(Duration.ofSeconds(1800))
+        .build());
+    fetcher.add(reissuedAgain);
+    clock.advance(Duration.ofSeconds(100));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(4, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    clock.advance(Duration.ofSeconds(10));
+    assertSame(reissued, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(5, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertSame(reissuedAgain, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+  }
+
+  @Test
+  void testRefreshVerification() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher, 100, clock);
+    pathBuilder.setRefreshAheadFraction(0.5);
+    pathBuilder.setRefreshJitter(0);
+    pathBuilder.setRefreshExecutor(Runnable::run);
+
+    final EntityStatement op1 = pathBuilder.getEntityConfiguration(TestFederation.OP1);
+    final EntityStatement ie2 = pathBuilder.getEntityConfiguration(TestFederation.IE2);
+    final EntityStatement ie2Op1 = pathBuilder.getSubordinateStatement(ie2, TestFederation.OP1);
+
+    // Reissued statements signed with keys other than the keys of the cached copy or the issuer are not used
+    fetcher.add(TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf()
+        .sigCredential(TestCredentials.ie2Sig)
+        .lifetime(Duration.ofSeconds(900))
+        .build()));
+    fetcher.add(TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .sigCredential(TestCredentials.op1Sig)
+        .lifetime(Duration.ofSeconds(900))
+        .build()));
+    clock.advance(Duration.ofSeconds(310));
+    assertSame(op1, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertSame(op1, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    assertEquals(2, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertSame(ie2Op1, pathBuilder.getSubordinateStatement(ie2, TestFederation.OP1));
+    assertSame(ie2Op1, pathBuilder.getSubordinateStatement(ie2, TestFederation.OP1));
+    assertEquals(2, fetcher.getFetchCount(TestFederation.IE2, TestFederation.OP1));
+
+    // Correctly signed reissued statements replace the cached copies at the next refresh
+    final EntityStatement reissuedOp1 = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf()
+        .lifetime(Duration.ofSeconds(900))
+        .build());
+    final EntityStatement reissuedIe2Op1 = TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .lifetime(Duration.ofSeconds(900))
+        .build());
+    fetcher.add(reissuedOp1);
+    fetcher.add(reissuedIe2Op1);
+    clock.advance(Duration.ofSeconds(150));
+    pathBuilder.getEntityConfiguration(TestFederation.OP1);
+    assertSame(reissuedOp1, pathBuilder.getEntityConfiguration(TestFederation.OP1));
+    pathBuilder.getSubordinateStatement(ie2, TestFederation.OP1);
+    assertSame(reissuedIe2Op1, pathBuilder.getSubordinateStatement(ie2, TestFederation.OP1));
+  }
+
+  @Test
+  void testPersistentStore() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+        pathBuilder.setStore(store);
+        pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+      }
+      final int fetchCount = fetcher.getFetchCount();
+
+      // A new path builder reads the statements of the path from the store
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        final CachingFederationPathBuilder pathBuilder = new CachingFederationPathBuilder(fetcher);
+        pathBuilder.setStore(store);
+        final List<EntityStatement> path = pathBuilder.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+        assertEquals(5, path.size());
+        getValidator().validate(path);
+
+        // Only the missing statement from ie1 is fetched again
+        assertEquals(fetchCount + 1, fetcher.getFetchCount());
+        assertEquals(2, fetcher.getFetchCount(TestFederation.IE1, TestFederation.OP1));
+        assertEquals(1, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+      }
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  static TestEntityStatements.EsData.EsDataBuilder ta1_ie2_statement() {
+    return TestEntityStatements.EsData.builder()
+        .subjName("ie2")
+        .issuerName("ta1")
+        .subjCredential(TestCredentials.ie2)
+        .sigCredential(TestCredentials.ta1Sig);
+  }
+
+  static DefaultFederationChainValidator getValidator() {
+    return new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()),
+        new StandardMetadataPolicySerializer(DefaultPolicyOperatorFactory.getInstance(),
+            Arrays.stream(PolicyParameterFormats.values())
+                .collect(Collectors.toMap(PolicyParameterFormats::getParameterName,
+                    PolicyParameterFormats::toMetadataParameter))));
+  }
+
+}
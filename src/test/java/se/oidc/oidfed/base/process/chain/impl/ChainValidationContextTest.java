@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the chain validation context
+ */
+class ChainValidationContextTest {
+
+  @Test
+  void testRecordedVerification() throws Exception {
+
+    final EntityStatement ta1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final EntityStatement ta1Op1 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_op1_direct().build());
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+    final ChainValidationContext context = new ChainValidationContext(List.of(ta1Conf, ta1Op1, op1Conf), null);
+
+    // The self-signed status is only available after the signature has been verified
+    assertTrue(context.isLeafEntityConfiguration());
+    assertThrows(IllegalStateException.class, context::isLeafSelfSigned);
+
+    // The self-signed status is read from the recorded verification, and is not recomputed from the statement
+    context.setVerification(2, new ChainValidationContext.StatementVerification(false, null));
+    assertFalse(context.isLeafSelfSigned());
+    assertTrue(context.isLeafEntityConfiguration());
+    context.setVerification(2, new ChainValidationContext.StatementVerification(true, null));
+    assertTrue(context.isLeafSelfSigned());
+    assertNull(context.getVerification(2).getVerifyingKey());
+    assertThrows(IllegalStateException.class, () -> context.getVerification(1));
+  }
+
+}
@@ -15,7 +15,9 @@
  */
 package se.oidc.oidfed.base.process.chain.impl;
 
+import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyType;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -28,7 +30,11 @@ import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
 import se.oidc.oidfed.base.data.federation.EntityStatement;
 import se.oidc.oidfed.base.data.federation.NamingConstraints;
 import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationFailureReason;
+import se.oidc.oidfed.base.process.chain.ChainValidationListener;
+import se.oidc.oidfed.base.process.chain.ChainValidationOutcome;
 import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.process.chain.ChainValidationStage;
 import se.oidc.oidfed.base.process.chain.FederationChainValidator;
 import se.oidc.oidfed.base.process.metadata.MetadataPolicySerializer;
 import se.oidc.oidfed.base.process.metadata.PolicyOperatorFactory;
@@ -37,16 +43,30 @@ import se.oidc.oidfed.base.process.metadata.impl.StandardMetadataPolicySerialize
 import se.oidc.oidfed.base.process.metadata.policyoperators.EssentialPolicyOperator;
 import se.oidc.oidfed.base.process.metadata.policyoperators.SubsetOfPolicyOperator;
 import se.oidc.oidfed.base.process.metadata.policyoperators.SupersetOfPolicyOperator;
+import se.oidc.oidfed.base.security.SignatureVerificationCache;
+import se.oidc.oidfed.base.security.TrustAnchorRegistry;
 import se.oidc.oidfed.base.testdata.TestCredentials;
 import se.oidc.oidfed.base.testdata.TestEntityStatements;
 import se.oidc.oidfed.base.testdata.TestMetadata;
+import se.oidc.oidfed.base.utils.JWKUtils;
 import se.oidc.oidfed.base.utils.OidcUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * OpenID federation chain validation tests.
@@ -211,6 +231,480 @@ class DefaultFederationChainValidatorTest {
 
   }
 
+  @Test
+  void testChainOrdering() throws Exception {
+
+    final EntityStatement ta1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final EntityStatement ta1Ie1 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build());
+    final EntityStatement ie1Ie2 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build());
+    final EntityStatement ie2Op1 = TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build());
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+
+    final List<EntityStatement> ordered = List.of(ta1Conf, ta1Ie1, ie1Ie2, ie2Op1, op1Conf);
+    final ChainValidationResult trustAnchorFirst = federationChainValidator.validate(ordered);
+    assertEquals(ordered, trustAnchorFirst.getValidatedChain());
+
+    final ChainValidationResult leafFirst =
+        federationChainValidator.validate(List.of(op1Conf, ie2Op1, ie1Ie2, ta1Ie1, ta1Conf));
+    assertEquals(ordered, leafFirst.getValidatedChain());
+
+    final ChainValidationResult shuffled =
+        federationChainValidator.validate(List.of(ie1Ie2, op1Conf, ta1Conf, ie2Op1, ta1Ie1));
+    assertEquals(ordered, shuffled.getValidatedChain());
+
+    // Two statements from the same issuer
+    assertThrows(ChainValidationException.class, () -> federationChainValidator.validate(
+        List.of(ta1Ie1, ta1Conf, ie1Ie2, ie2Op1, op1Conf, ta1Ie1)));
+
+    // Missing link in the path
+    assertThrows(ChainValidationException.class, () -> federationChainValidator.validate(
+        List.of(op1Conf, ie2Op1, ta1Ie1, ta1Conf)));
+
+    // The validated chain is not affected by later changes to the input list
+    final List<EntityStatement> input = new ArrayList<>(ordered);
+    final ChainValidationResult result = federationChainValidator.validate(input);
+    input.set(0, op1Conf);
+    input.clear();
+    assertEquals(ordered, result.getValidatedChain());
+  }
+
+  @Test
+  void testSignatureVerificationCount() throws Exception {
+
+    // Counts the signatures that are verified and not found in the cache
+    final AtomicInteger verifications = new AtomicInteger();
+    final SignatureVerificationCache countingCache = new SignatureVerificationCache() {
+      @Override
+      public void addVerified(final String jwsDigest, final String keyThumbprint, final Date expirationTime) {
+        verifications.incrementAndGet();
+        super.addVerified(jwsDigest, keyThumbprint, expirationTime);
+      }
+    };
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer, countingCache);
+
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()));
+
+    // One verification per statement. The self-signed status of the Trust Anchor and leaf Entity Configurations is
+    // determined from the key that verified them, without verifying them again.
+    final ChainValidationResult result = validator.validate(chain);
+    assertEquals(5, verifications.get());
+    assertEquals(5, result.getValidatedChain().size());
+
+    // A chain with the same statements is validated without verifying any signature
+    validator.validate(chain);
+    assertEquals(5, verifications.get());
+  }
+
+  @Test
+  void testCachedPolicyPrefix() throws Exception {
+
+    final FederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer);
+
+    // Statements shared by all chains below
+    final List<EntityStatement> prefix = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()));
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+
+    final List<EntityStatement> chain = new ArrayList<>(prefix);
+    chain.add(TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()));
+    chain.add(op1Conf);
+    final String firstResult = OidcUtils.OBJECT_MAPPER.writeValueAsString(
+        validator.validate(chain).getPolicyProcessedMetadata());
+    final String secondResult = OidcUtils.OBJECT_MAPPER.writeValueAsString(
+        validator.validate(chain).getPolicyProcessedMetadata());
+    JSONAssert.assertEquals(OidcUtils.OBJECT_MAPPER.writeValueAsString(EntityMetadataInfoClaim.builder()
+        .opMetadataObject(TestMetadata.opMetadata_claims123)
+        .build()), firstResult, false);
+    assertEquals(firstResult, secondResult);
+
+    // Leaf specific policy is merged with the cached prefix policy
+    final List<EntityStatement> restrictedChain = new ArrayList<>(prefix);
+    restrictedChain.add(TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .policy(EntityMetadataInfoClaim.builder()
+            .opMetadataObject(serializer.toJsonObject(EntityTypeMetadataPolicy.builder()
+                .addMetadataParameterPolicy(
+                    MetadataParameterPolicy.builder(PolicyParameterFormats.claims_supported.toMetadataParameter())
+                        .add(SubsetOfPolicyOperator.OPERATOR_NAME, List.of("claim1", "claim2"))
+                        .build())
+                .build()))
+            .build())
+        .build()));
+    restrictedChain.add(op1Conf);
+    JSONAssert.assertEquals(OidcUtils.OBJECT_MAPPER.writeValueAsString(EntityMetadataInfoClaim.builder()
+            .opMetadataObject(TestMetadata.opMetadata_claims12)
+            .build()),
+        OidcUtils.OBJECT_MAPPER.writeValueAsString(validator.validate(restrictedChain).getPolicyProcessedMetadata()),
+        false);
+
+    // Leaf specific policy conflicting with the cached prefix policy
+    final List<EntityStatement> conflictingChain = new ArrayList<>(prefix);
+    conflictingChain.add(TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .policy(EntityMetadataInfoClaim.builder()
+            .opMetadataObject(serializer.toJsonObject(EntityTypeMetadataPolicy.builder()
+                .addMetadataParameterPolicy(
+                    MetadataParameterPolicy.builder(PolicyParameterFormats.claims_supported.toMetadataParameter())
+                        .add(SubsetOfPolicyOperator.OPERATOR_NAME, List.of("claim1"))
+                        .build())
+                .build()))
+            .build())
+        .build()));
+    conflictingChain.add(op1Conf);
+    assertThrows(ChainValidationException.class, () -> validator.validate(conflictingChain));
+  }
+
+  @Test
+  void testBatchValidation() throws Exception {
+
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer, null);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    validator.setBatchExecutor(executor);
+
+    final EntityStatement ta1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final EntityStatement ta1Ie1 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build());
+    final EntityStatement ie1Ie2 =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build());
+    final EntityStatement ie2Op1 = TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build());
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+
+    try {
+      final List<ChainValidationOutcome> outcomes = validator.validateAll(List.of(
+          List.of(ta1Conf, ta1Ie1, ie1Ie2, ie2Op1, op1Conf),
+          List.of(op1Conf, ie2Op1, ta1Ie1, ta1Conf),
+          List.of(op1Conf, ie2Op1, ie1Ie2, ta1Ie1, ta1Conf),
+          List.of(ta1Conf, ta1Ie1, ie1Ie2, ie2Op1)));
+
+      assertEquals(4, outcomes.size());
+      assertTrue(outcomes.get(0).isValid());
+      assertEquals(5, outcomes.get(0).getResultOrThrow().getValidatedChain().size());
+      assertFalse(outcomes.get(1).isValid());
+      assertNotNull(outcomes.get(1).getException());
+      assertTrue(outcomes.get(2).isValid());
+      assertFalse(outcomes.get(3).isValid());
+      assertThrows(ChainValidationException.class, () -> outcomes.get(3).getResultOrThrow());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testBatchSharedStatementVerification() throws Exception {
+
+    final EntityStatement ta1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final String ta1ConfDigest = SignatureVerificationCache.getJwsDigest(ta1Conf.getSignedJWT());
+
+    // Counts the verifications of the Trust Anchor statement. Adding to the cache is slowed down to let concurrent
+    // verifications of the same statement overlap.
+    final AtomicInteger trustAnchorVerifications = new AtomicInteger();
+    final SignatureVerificationCache countingCache = new SignatureVerificationCache() {
+      @Override
+      public void addVerified(final String jwsDigest, final String keyThumbprint, final Date expirationTime) {
+        if (ta1ConfDigest.equals(jwsDigest)) {
+          trustAnchorVerifications.incrementAndGet();
+        }
+        try {
+          Thread.sleep(100);
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.addVerified(jwsDigest, keyThumbprint, expirationTime);
+      }
+    };
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer, countingCache);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    validator.setBatchExecutor(executor);
+
+    try {
+      // Two prefix groups sharing the Trust Anchor statement
+      final List<ChainValidationOutcome> outcomes = validator.validateAll(List.of(
+          List.of(ta1Conf,
+              TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+              TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+              TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+              TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build())),
+          List.of(ta1Conf,
+              TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_op1_direct().build()),
+              TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()))));
+
+      assertTrue(outcomes.get(0).isValid());
+      assertEquals(2, outcomes.size());
+      assertEquals(1, trustAnchorVerifications.get());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testBatchValidationExecutors() throws Exception {
+
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer, null);
+    final List<List<EntityStatement>> chains = List.of(
+        List.of(
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build())),
+        List.of(
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build())));
+
+    // Rejected validation tasks give failed outcomes
+    validator.setBatchExecutor(command -> {
+      throw new RejectedExecutionException("Queue full");
+    });
+    final List<ChainValidationOutcome> rejectedOutcomes = validator.validateAll(chains);
+    assertEquals(2, rejectedOutcomes.size());
+    assertEquals(ChainValidationFailureReason.EXECUTION_REJECTED, rejectedOutcomes.get(0).getException().getReason());
+    assertEquals(ChainValidationFailureReason.MISSING_TARGET_CONFIGURATION,
+        rejectedOutcomes.get(1).getException().getReason());
+
+    // A single thread pool used for both chains and signatures does not deadlock
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    validator.setBatchExecutor(executor);
+    validator.setSignatureExecutor(executor);
+    try {
+      final List<ChainValidationOutcome> outcomes = validator.validateAll(chains);
+      assertTrue(outcomes.get(0).isValid());
+      assertFalse(outcomes.get(1).isValid());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testConcurrentSignatureVerification() throws Exception {
+
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer, null);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    validator.setSignatureExecutor(executor);
+
+    try {
+      final ChainValidationResult result = validator.validate(List.of(
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build())));
+      assertEquals(5, result.getValidatedChain().size());
+
+      // Statement signed by the wrong key
+      assertThrows(ChainValidationException.class, () -> validator.validate(List.of(
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement()
+              .sigCredential(TestCredentials.op1Sig)
+              .build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+          TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()))));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testValidationStages() throws Exception {
+
+    // Constraints are checked before the invalid signature
+    final ChainValidationException constraintsException = assertThrows(ChainValidationException.class,
+        () -> federationChainValidator.validate(List.of(
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement()
+                .constraintsClaim(ConstraintsClaim.builder()
+                    .maxPathLength(1)
+                    .build())
+                .build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement()
+                .sigCredential(TestCredentials.op1Sig)
+                .build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()))));
+    assertEquals(ChainValidationStage.CONSTRAINTS, constraintsException.getStage());
+    assertEquals(ChainValidationFailureReason.MAX_PATH_LENGTH_EXCEEDED, constraintsException.getReason());
+
+    final ChainValidationException signatureException = assertThrows(ChainValidationException.class,
+        () -> federationChainValidator.validate(List.of(
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement()
+                .sigCredential(TestCredentials.op1Sig)
+                .build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()))));
+    assertEquals(ChainValidationStage.SIGNATURES, signatureException.getStage());
+    assertEquals(ChainValidationFailureReason.NO_MATCHING_KEY, signatureException.getReason());
+
+    final ChainValidationException structureException = assertThrows(ChainValidationException.class,
+        () -> federationChainValidator.validate(List.of(
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+            TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()))));
+    assertEquals(ChainValidationStage.STRUCTURE, structureException.getStage());
+    assertEquals(ChainValidationFailureReason.MISSING_TRUST_ANCHOR_CONFIGURATION, structureException.getReason());
+  }
+
+  @Test
+  void testProcessedMetadataIsolation() throws Exception {
+
+    final EntityStatement op1Conf = TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build());
+    final String declaredOpMetadata =
+        OidcUtils.OBJECT_MAPPER.writeValueAsString(op1Conf.getMetadata().getOpMetadataObject());
+    final ChainValidationResult result = federationChainValidator.validate(List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+        op1Conf));
+
+    // Policy processing does not modify the metadata of the leaf statement
+    assertEquals(declaredOpMetadata,
+        OidcUtils.OBJECT_MAPPER.writeValueAsString(op1Conf.getMetadata().getOpMetadataObject()));
+
+    // The result metadata is mutable, and changes to it, also to nested values, do not affect the leaf statement
+    for (final Map<String, Object> metadataObject : List.of(result.getPolicyProcessedMetadata().getOpMetadataObject(),
+        result.getDeclaredMetadata().getOpMetadataObject())) {
+      assertTrue(metadataObject.values().stream().anyMatch(List.class::isInstance));
+      for (final Object value : metadataObject.values()) {
+        if (value instanceof final List<?> listValue) {
+          listValue.clear();
+        }
+        if (value instanceof final Map<?, ?> mapValue) {
+          mapValue.clear();
+        }
+      }
+      metadataObject.put("issuer", "https://example.com/other");
+    }
+    assertEquals(declaredOpMetadata,
+        OidcUtils.OBJECT_MAPPER.writeValueAsString(op1Conf.getMetadata().getOpMetadataObject()));
+  }
+
+  @Test
+  void testTrustAnchorRegistry() throws Exception {
+
+    final TrustAnchorRegistry registry = new TrustAnchorRegistry(Map.of(
+        "https://example.com/other-ta", TestCredentials.getJwkSet(TestCredentials.p256Credential.getCertificate())));
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(registry, serializer, null);
+
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()));
+
+    // The Trust Anchor of the chain is not registered
+    assertEquals(ChainValidationStage.SIGNATURES,
+        assertThrows(ChainValidationException.class, () -> validator.validate(chain)).getStage());
+
+    // Registered Trust Anchor with the wrong key
+    registry.setTrustAnchor("https://example.com/ta1",
+        TestCredentials.getJwkSet(TestCredentials.p521Credential.getCertificate()));
+    assertThrows(ChainValidationException.class, () -> validator.validate(chain));
+
+    // Key rollover takes effect without creating a new validator
+    registry.setTrustAnchor("https://example.com/ta1", JWKUtils.jwksBuilder()
+        .addKey(TestCredentials.p521Credential.getCertificate(), "old_key")
+        .addKey(TestCredentials.ta1.getCertificate(), "test_ta1")
+        .build());
+    assertEquals(5, validator.validate(chain).getValidatedChain().size());
+    validator.setStrictKeySelection(true);
+    assertEquals(5, validator.validate(chain).getValidatedChain().size());
+
+    registry.removeTrustAnchor("https://example.com/ta1");
+    assertThrows(ChainValidationException.class, () -> validator.validate(chain));
+  }
+
+  @Test
+  void testValidationListener() throws Exception {
+
+    final DefaultFederationChainValidator validator = new DefaultFederationChainValidator(
+        TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate()), serializer);
+    final List<ChainValidationStage> completedStages = new ArrayList<>();
+    final List<String> verifiedSignatures = new ArrayList<>();
+    final List<String> cacheAccesses = new ArrayList<>();
+    final List<ChainValidationStage> failedStages = new ArrayList<>();
+    final List<ChainValidationFailureReason> failureReasons = new ArrayList<>();
+    final List<Integer> validatedChainLengths = new ArrayList<>();
+    validator.setListener(new ChainValidationListener() {
+      @Override
+      public void stageCompleted(final ChainValidationStage stage, final long durationNanos) {
+        completedStages.add(stage);
+      }
+
+      @Override
+      public void signatureVerified(final JWSAlgorithm algorithm, final KeyType keyType) {
+        verifiedSignatures.add(algorithm + "/" + keyType);
+      }
+
+      @Override
+      public void cacheAccessed(final CacheType cacheType, final boolean hit) {
+        cacheAccesses.add(cacheType + (hit ? " hit" : " miss"));
+      }
+
+      @Override
+      public void chainValidated(final int chainLength, final long durationNanos) {
+        validatedChainLengths.add(chainLength);
+      }
+
+      @Override
+      public void chainValidationFailed(final int chainLength, final ChainValidationStage stage,
+          final ChainValidationFailureReason reason, final ChainValidationException exception) {
+        failedStages.add(stage);
+        failureReasons.add(reason);
+      }
+    });
+
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().build()));
+    validator.validate(chain);
+    assertEquals(List.of(ChainValidationStage.values()), completedStages);
+    assertEquals(List.of("ES512/EC", "ES512/EC", "ES512/EC", "ES256/EC", "RS256/RSA", "ES256/EC"), verifiedSignatures);
+    assertTrue(cacheAccesses.contains("SIGNATURE_VERIFICATION miss"));
+    assertTrue(cacheAccesses.contains("MERGED_METADATA_POLICY miss"));
+    assertEquals(List.of(5), validatedChainLengths);
+
+    cacheAccesses.clear();
+    validator.validate(chain);
+    assertTrue(cacheAccesses.stream().allMatch(access -> access.endsWith(" hit")));
+
+    // Merged policies are not cached when policy caching is turned off
+    validator.setMergedPolicyCaching(false);
+    cacheAccesses.clear();
+    validator.validate(chain);
+    assertTrue(cacheAccesses.stream().noneMatch(access -> access.startsWith("MERGED_METADATA_POLICY")));
+    validator.setMergedPolicyCaching(true);
+
+    assertThrows(ChainValidationException.class, () -> validator.validate(chain.subList(0, 4)));
+    assertEquals(List.of(ChainValidationStage.STRUCTURE), failedStages);
+    assertEquals(List.of(ChainValidationFailureReason.MISSING_TARGET_CONFIGURATION), failureReasons);
+  }
+
   void performChainTest(final String message, final List<TestEntityStatements.EsData.EsDataBuilder> builderChain,
       final EntityMetadataInfoClaim expected, final Class<? extends Exception> exceptionClass) throws Exception {
     log.info("Entity Statement chain validation test: {}", message);
@@ -35,13 +35,20 @@ import se.oidc.oidfed.base.testdata.TestEntityStatements;
 import se.oidc.oidfed.base.utils.JWKUtils;
 import se.oidc.oidfed.base.utils.OidcUtils;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -244,6 +251,143 @@ class DefaultTrustMarkValidatorTest {
     );
   }
 
+  @Test
+  void groupedTrustMarksTest() throws Exception {
+    final List<EntityStatement> chain = List.of(
+        TestEntityStatements.ta1_conf()
+            .trustMarkIssuersMap(Map.of(
+                "https://example.com/trustMark-1", List.of("https://example.com/ie2"),
+                "https://example.com/trustMark-2", List.of("https://example.com/ie2")))
+            .build(),
+        TestEntityStatements.ta1_ie1_statement().build(),
+        TestEntityStatements.ie1_ie2_statement().build(),
+        TestEntityStatements.ie2_ie2_configuration().build()).stream()
+        .map(TestEntityStatements::getEntityStatement)
+        .toList();
+    final AtomicInteger pathCount = new AtomicInteger();
+    final AtomicInteger validationCount = new AtomicInteger();
+    final TrustMarkValidator trustMarkValidator = new DefaultTrustMarkValidator(
+        (entityIdentifier, trustAnchor, trustAnchorFirst) -> {
+          pathCount.incrementAndGet();
+          return chain;
+        },
+        (trustMarkId, subject, issuer) -> true,
+        trustMarkChain -> {
+          validationCount.incrementAndGet();
+          return federationChainValidator.validate(trustMarkChain);
+        });
+
+    final List<TrustMark> trustMarks = new ArrayList<>();
+    for (final String trustMarkId : List.of("https://example.com/trustMark-1", "https://example.com/trustMark-2",
+        "https://example.com/trustMark-3")) {
+      trustMarks.add(TrustMark.builder()
+          .trustMarkId(trustMarkId)
+          .issuer("https://example.com/ie2")
+          .subject("https://example.com/op1")
+          .issueTime(new Date())
+          .expriationTime(Date.from(Instant.now().plusSeconds(120)))
+          .build(TestCredentials.ie2Sig, null));
+    }
+
+    // The issuer path is built and validated once for all Trust Marks from the issuer
+    final List<TrustMark> validatedTrustMarks =
+        trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1");
+    assertEquals(List.of("https://example.com/trustMark-1", "https://example.com/trustMark-2"),
+        validatedTrustMarks.stream().map(TrustMark::getTrustMarkId).toList());
+    assertEquals(1, pathCount.get());
+    assertEquals(1, validationCount.get());
+
+    // Each call validates the issuer path again
+    trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1");
+    assertEquals(2, pathCount.get());
+    assertEquals(2, validationCount.get());
+  }
+
+  @Test
+  void concurrentTrustMarksTest() throws Exception {
+    final List<EntityStatement> chain = getTrustMarkIssuerChain();
+    final List<TrustMark> trustMarks = new ArrayList<>();
+    for (int i = 1; i <= 6; i++) {
+      trustMarks.add(TrustMark.builder()
+          .trustMarkId("https://example.com/trustMark-" + i)
+          .issuer("https://example.com/ie2")
+          .subject("https://example.com/op1")
+          .issueTime(new Date())
+          .expriationTime(Date.from(Instant.now().plusSeconds(120)))
+          .build(TestCredentials.ie2Sig, null));
+    }
+    final AtomicInteger pathCount = new AtomicInteger();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final DefaultTrustMarkValidator trustMarkValidator = new DefaultTrustMarkValidator(
+        (entityIdentifier, trustAnchor, trustAnchorFirst) -> {
+          pathCount.incrementAndGet();
+          return chain;
+        },
+        (trustMarkId, subject, issuer) -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(trustMarkId.endsWith("-3") ? 500 : 20);
+          }
+          catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+          return !trustMarkId.endsWith("-2");
+        },
+        federationChainValidator);
+
+    final List<TrustMark> sequentialResult =
+        trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1");
+    assertEquals(List.of("https://example.com/trustMark-1", "https://example.com/trustMark-3",
+            "https://example.com/trustMark-4"),
+        sequentialResult.stream().map(TrustMark::getTrustMarkId).toList());
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      trustMarkValidator.setExecutor(executor);
+      trustMarkValidator.setMaxConcurrency(2);
+      pathCount.set(0);
+      maxRunning.set(0);
+      assertEquals(sequentialResult,
+          trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1"));
+      assertEquals(1, pathCount.get());
+      assertTrue(maxRunning.get() <= 2);
+
+      // Trust Marks not validated before the timeout are not included, but later Trust Marks are
+      trustMarkValidator.setTimeout(Duration.ofMillis(200));
+      assertEquals(List.of("https://example.com/trustMark-1", "https://example.com/trustMark-4"),
+          trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1")
+              .stream().map(TrustMark::getTrustMarkId).toList());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // Trust Marks rejected by the executor are validated in the calling thread
+    trustMarkValidator.setTimeout(null);
+    trustMarkValidator.setExecutor(command -> {
+      throw new RejectedExecutionException("Executor is saturated");
+    });
+    assertEquals(sequentialResult,
+        trustMarkValidator.validateTrustMarks(trustMarks, "https://example.com/op1", "https://example.com/ta1"));
+  }
+
+  private static List<EntityStatement> getTrustMarkIssuerChain() throws Exception {
+    return Stream.of(
+            TestEntityStatements.ta1_conf()
+                .trustMarkIssuersMap(Map.of(
+                    "https://example.com/trustMark-1", List.of("https://example.com/ie2"),
+                    "https://example.com/trustMark-2", List.of("https://example.com/ie2"),
+                    "https://example.com/trustMark-3", List.of("https://example.com/ie2"),
+                    "https://example.com/trustMark-4", List.of("https://example.com/ie2"))),
+            TestEntityStatements.ta1_ie1_statement(),
+            TestEntityStatements.ie1_ie2_statement(),
+            TestEntityStatements.ie2_ie2_configuration())
+        .map(esDataBuilder -> TestEntityStatements.getEntityStatement(esDataBuilder.build()))
+        .toList();
+  }
+
   void performTrustMarkTest(final String message, final List<TrustMark> trustMarks, final String subjectId,
       final List<TestEntityStatements.EsData.EsDataBuilder> builderChain, final List<String> expected,
       final boolean status,
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.ChainValidationException;
+import se.oidc.oidfed.base.process.chain.ChainValidationResult;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for asynchronous chain validation
+ */
+class ExecutorAsyncFederationChainValidatorTest {
+
+  @Test
+  void testAsyncValidation() throws Exception {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger validations = new AtomicInteger();
+    try (final ExecutorAsyncFederationChainValidator validator = new ExecutorAsyncFederationChainValidator(chain -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      validations.incrementAndGet();
+      if (chain.isEmpty()) {
+        throw new ChainValidationException("Empty chain");
+      }
+      return ChainValidationResult.builder().validatedChain(chain).build();
+    }, 1, 2)) {
+
+      final List<EntityStatement> chain =
+          List.of(TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()));
+      // One running and two queued validations fill the validator
+      final CompletableFuture<ChainValidationResult> running = validator.validateAsync(chain);
+      final CompletableFuture<ChainValidationResult> cancelled = validator.validateAsync(chain);
+      final CompletableFuture<ChainValidationResult> failing = validator.validateAsync(List.of());
+      final CompletableFuture<ChainValidationResult> rejected = validator.validateAsync(chain);
+      final ExecutionException rejectedException = assertThrows(ExecutionException.class, rejected::get);
+      assertTrue(rejectedException.getCause() instanceof RejectedExecutionException);
+
+      cancelled.cancel(true);
+      assertThrows(CancellationException.class, cancelled::get);
+
+      release.countDown();
+      assertEquals(chain, running.get(10, TimeUnit.SECONDS).getValidatedChain());
+      final ExecutionException failedException =
+          assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+      assertTrue(failedException.getCause() instanceof ChainValidationException);
+      // The cancelled validation was never started
+      assertEquals(2, validations.get());
+    }
+  }
+
+  @Test
+  void testCompletionDoesNotInterruptWorker() throws Exception {
+
+    // Records the interrupt status of the worker thread after each task
+    final List<Boolean> interrupted = new CopyOnWriteArrayList<>();
+    final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>()) {
+      @Override
+      protected void afterExecute(final Runnable runnable, final Throwable throwable) {
+        interrupted.add(Thread.currentThread().isInterrupted());
+      }
+    };
+    try (final ExecutorAsyncFederationChainValidator validator = new ExecutorAsyncFederationChainValidator(chain -> {
+      if (chain.isEmpty()) {
+        throw new ChainValidationException("Empty chain");
+      }
+      return ChainValidationResult.builder().validatedChain(chain).build();
+    }, executor)) {
+
+      final List<EntityStatement> chain =
+          List.of(TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build()));
+      assertEquals(chain, validator.validateAsync(chain).get(10, TimeUnit.SECONDS).getValidatedChain());
+      assertThrows(ExecutionException.class, () -> validator.validateAsync(List.of()).get(10, TimeUnit.SECONDS));
+    }
+    finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    assertEquals(List.of(false, false), interrupted);
+  }
+
+  @Test
+  void testDeadline() throws Exception {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    try (final ExecutorAsyncFederationChainValidator validator = new ExecutorAsyncFederationChainValidator(chain -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return ChainValidationResult.builder().validatedChain(chain).build();
+    }, 1, 1)) {
+
+      final CompletableFuture<ChainValidationResult> result =
+          validator.validateAsync(List.of(), Duration.ofMillis(50));
+      final ExecutionException exception =
+          assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+      assertTrue(exception.getCause() instanceof TimeoutException);
+      release.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.PathBuildingException;
+import se.oidc.oidfed.base.testdata.InMemoryEntityStatementFetcher;
+import se.oidc.oidfed.base.testdata.TestClock;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+import se.oidc.oidfed.base.testdata.TestFederation;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the federation graph
+ */
+class FederationGraphTest {
+
+  @Test
+  void testCrawlAndBuildPath() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final FederationGraph graph = new FederationGraph(fetcher, List.of(TestFederation.TA1));
+    assertThrows(PathBuildingException.class, () -> graph.buildPath(TestFederation.OP1, TestFederation.TA1, true));
+
+    graph.crawl();
+    assertEquals(Set.of(TestFederation.TA1, TestFederation.IE1, TestFederation.IE2, TestFederation.OP1),
+        graph.getEntityIdentifiers(TestFederation.TA1));
+    final int fetchCount = fetcher.getFetchCount();
+
+    final List<EntityStatement> path = graph.buildPath(TestFederation.OP1, TestFederation.TA1, false);
+    assertEquals(5, path.size());
+    assertEquals(TestFederation.OP1, path.get(0).getIssuer());
+    assertEquals(TestFederation.TA1, path.get(4).getIssuer());
+    final List<EntityStatement> taFirstPath = graph.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+    assertEquals(5, CachingFederationPathBuilderTest.getValidator().validate(taFirstPath).getValidatedChain().size());
+    assertEquals(1, graph.buildPath(TestFederation.TA1, TestFederation.TA1, true).size());
+
+    // Paths are looked up without fetching
+    assertEquals(fetchCount, fetcher.getFetchCount());
+    assertThrows(PathBuildingException.class,
+        () -> graph.buildPath("https://example.com/unknown", TestFederation.TA1, true));
+    assertThrows(PathBuildingException.class,
+        () -> graph.buildPath(TestFederation.OP1, "https://example.com/unknown", true));
+  }
+
+  @Test
+  void testShortestPath() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create()
+        .add(TestEntityStatements.getEntityStatement(CachingFederationPathBuilderTest.ta1_ie2_statement().build()));
+    final FederationGraph graph = new FederationGraph(fetcher, List.of(TestFederation.TA1));
+    graph.crawl();
+
+    final List<EntityStatement> path = graph.buildPath(TestFederation.OP1, TestFederation.TA1, true);
+    assertEquals(4, path.size());
+    assertEquals(4, CachingFederationPathBuilderTest.getValidator().validate(path).getValidatedChain().size());
+  }
+
+  @Test
+  void testIncrementalCrawl() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final FederationGraph graph = new FederationGraph(fetcher, List.of(TestFederation.TA1), clock);
+    graph.setRefreshMargin(Duration.ofSeconds(60));
+    graph.crawl();
+    final int fetchCount = fetcher.getFetchCount();
+    assertEquals(1, fetcher.getListCount(TestFederation.IE2));
+
+    // Subordinates are listed again, but statements are reused
+    graph.crawl();
+    assertEquals(fetchCount + 3, fetcher.getFetchCount());
+    assertEquals(2, fetcher.getListCount(TestFederation.IE2));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertEquals(1, fetcher.getFetchCount(TestFederation.IE2, TestFederation.OP1));
+
+    // Statements are fetched again when they expire within the refresh margin
+    clock.advance(Duration.ofSeconds(550));
+    graph.crawl();
+    assertEquals(2, fetcher.getFetchCount(TestFederation.OP1, TestFederation.OP1));
+    assertEquals(2, fetcher.getFetchCount(TestFederation.IE2, TestFederation.OP1));
+    assertEquals(5, graph.buildPath(TestFederation.OP1, TestFederation.TA1, true).size());
+  }
+
+  @Test
+  void testUnavailableStatements() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final FederationGraph graph = new FederationGraph(fetcher, List.of(TestFederation.TA1), clock);
+    graph.setRefreshMargin(Duration.ofSeconds(60));
+    graph.crawl();
+
+    // A statement that can not be fetched again is reused until it expires
+    for (final EntityStatement statement : TestFederation.statements(Duration.ofSeconds(900))) {
+      fetcher.add(statement);
+    }
+    fetcher.remove(TestFederation.OP1, TestFederation.OP1);
+    clock.advance(Duration.ofSeconds(550));
+    graph.crawl();
+    assertEquals(5, graph.buildPath(TestFederation.OP1, TestFederation.TA1, true).size());
+    clock.advance(Duration.ofSeconds(60));
+    graph.crawl();
+    assertThrows(PathBuildingException.class, () -> graph.buildPath(TestFederation.OP1, TestFederation.TA1, true));
+    assertEquals(4, graph.buildPath(TestFederation.IE2, TestFederation.TA1, true).size());
+
+    // Entities that are no longer listed are removed
+    fetcher.remove(TestFederation.IE1, TestFederation.IE2);
+    graph.crawl();
+    assertEquals(Set.of(TestFederation.TA1, TestFederation.IE1), graph.getEntityIdentifiers(TestFederation.TA1));
+
+    // The previous index is kept if the Trust Anchor can not be fetched
+    fetcher.remove(TestFederation.TA1, TestFederation.TA1);
+    graph.crawl();
+    assertEquals(3, graph.buildPath(TestFederation.IE1, TestFederation.TA1, true).size());
+  }
+
+  @Test
+  void testExpiredPath() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final FederationGraph graph = new FederationGraph(fetcher, List.of(TestFederation.TA1), clock);
+    graph.crawl();
+    assertEquals(5, graph.buildPath(TestFederation.OP1, TestFederation.TA1, true).size());
+
+    // Paths are not returned once a statement has expired, even if no crawl has replaced it
+    clock.advance(Duration.ofSeconds(610));
+    assertThrows(PathBuildingException.class, () -> graph.buildPath(TestFederation.OP1, TestFederation.TA1, true));
+    assertThrows(PathBuildingException.class, () -> graph.buildPath(TestFederation.TA1, TestFederation.TA1, true));
+  }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.process.chain.impl;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.testdata.InMemoryEntityStatementFetcher;
+import se.oidc.oidfed.base.testdata.TestClock;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+import se.oidc.oidfed.base.testdata.TestFederation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the file Entity Statement store
+ */
+class FileEntityStatementStoreTest {
+
+  @Test
+  void testStoreAndReopen() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final EntityStatement op1 = fetcher.fetchEntityConfiguration(TestFederation.OP1);
+    final EntityStatement ie2op1 = fetcher.fetchSubordinateStatement("https://example.com/ie2/fetch",
+        TestFederation.OP1);
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        store.put(op1);
+        store.put(ie2op1);
+        assertSame(op1, store.get(TestFederation.OP1, TestFederation.OP1));
+        assertNull(store.get(TestFederation.IE1, TestFederation.OP1));
+      }
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        assertEquals(2, store.size());
+        final EntityStatement restored = store.get(TestFederation.IE2, TestFederation.OP1);
+        assertNotNull(restored);
+        assertEquals(ie2op1.getSignedJWT().serialize(), restored.getSignedJWT().serialize());
+        assertEquals(op1.getSignedJWT().serialize(),
+            store.get(TestFederation.OP1, TestFederation.OP1).getSignedJWT().serialize());
+        assertSame(restored, store.get(TestFederation.IE2, TestFederation.OP1));
+      }
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testSeparatorInEntityIdentifiers() throws Exception {
+    // Issuer and subject pairs that are equal when joined with a separator
+    final EntityStatement first = TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .issuerName("a|https://example.com/b")
+        .subjName("c")
+        .build());
+    final EntityStatement second = TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1()
+        .issuerName("a")
+        .subjName("b|https://example.com/c")
+        .build());
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        store.put(first);
+        store.put(second);
+        assertEquals(2, store.size());
+        assertSame(first, store.get(first.getIssuer(), first.getSubject()));
+        assertSame(second, store.get(second.getIssuer(), second.getSubject()));
+      }
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        assertEquals(2, store.size());
+        assertEquals(first.getSignedJWT().serialize(),
+            store.get(first.getIssuer(), first.getSubject()).getSignedJWT().serialize());
+        assertEquals(second.getSignedJWT().serialize(),
+            store.get(second.getIssuer(), second.getSubject()).getSignedJWT().serialize());
+      }
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testReplaceAndCompact() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final EntityStatement op1 = fetcher.fetchEntityConfiguration(TestFederation.OP1);
+    final EntityStatement ie1 = fetcher.fetchEntityConfiguration(TestFederation.IE1);
+    final Path file = Files.createTempFile("statements", ".seg");
+    try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+      store.put(op1);
+      store.put(ie1);
+      final long fileSize = Files.size(file);
+      store.put(op1);
+      assertTrue(Files.size(file) > fileSize);
+
+      store.compact();
+      assertEquals(fileSize, Files.size(file));
+      assertEquals(2, store.size());
+      assertEquals(op1.getSignedJWT().serialize(),
+          store.get(TestFederation.OP1, TestFederation.OP1).getSignedJWT().serialize());
+
+      // The store is still writable after compaction
+      store.put(TestFederation.create().fetchEntityConfiguration(TestFederation.TA1));
+      assertNotNull(store.get(TestFederation.TA1, TestFederation.TA1));
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testReadDuringCompaction() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final List<EntityStatement> statements = List.of(
+        fetcher.fetchEntityConfiguration(TestFederation.TA1),
+        fetcher.fetchEntityConfiguration(TestFederation.IE1),
+        fetcher.fetchEntityConfiguration(TestFederation.IE2),
+        fetcher.fetchEntityConfiguration(TestFederation.OP1));
+    final Path file = Files.createTempFile("statements", ".seg");
+    try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final AtomicInteger mismatches = new AtomicInteger();
+      final Thread reader = new Thread(() -> {
+        while (running.get()) {
+          for (final EntityStatement statement : statements) {
+            final EntityStatement stored = store.get(statement.getIssuer(), statement.getSubject());
+            if (stored == null || !statement.getSubject().equals(stored.getSubject())) {
+              mismatches.incrementAndGet();
+            }
+          }
+        }
+      });
+      statements.forEach(store::put);
+      reader.start();
+      try {
+        // Replaced records change the offsets of the compacted records
+        for (int i = 0; i < 50; i++) {
+          store.put(statements.get(i % statements.size()));
+          store.compact();
+        }
+      }
+      finally {
+        running.set(false);
+        reader.join();
+      }
+      assertEquals(0, mismatches.get());
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testExpiredStatements() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final TestClock clock = new TestClock();
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file, clock)) {
+        store.put(fetcher.fetchEntityConfiguration(TestFederation.OP1));
+        clock.advance(Duration.ofSeconds(601));
+        assertNull(store.get(TestFederation.OP1, TestFederation.OP1));
+        store.put(fetcher.fetchEntityConfiguration(TestFederation.IE1));
+        assertEquals(0, store.size());
+      }
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file, clock)) {
+        assertEquals(0, store.size());
+      }
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testIncompleteRecord() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        store.put(fetcher.fetchEntityConfiguration(TestFederation.OP1));
+      }
+      final long fileSize = Files.size(file);
+      Files.write(file, new byte[] { 0, 0, 1, 0, 0, 0 }, StandardOpenOption.APPEND);
+
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        assertEquals(fileSize, Files.size(file));
+        assertNotNull(store.get(TestFederation.OP1, TestFederation.OP1));
+        store.put(fetcher.fetchEntityConfiguration(TestFederation.IE1));
+      }
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        assertEquals(2, store.size());
+        assertNotNull(store.get(TestFederation.IE1, TestFederation.IE1));
+      }
+
+      Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+      assertThrows(IOException.class, () -> new FileEntityStatementStore(file));
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void testCorruptRecordLengths() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = TestFederation.create();
+    final Path file = Files.createTempFile("statements", ".seg");
+    try {
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        store.put(fetcher.fetchEntityConfiguration(TestFederation.OP1));
+      }
+      final long fileSize = Files.size(file);
+      // A record whose issuer length overflows int arithmetic when added to the record position
+      Files.write(file, ByteBuffer.allocate(24)
+          .putInt(20)
+          .putLong(Long.MAX_VALUE)
+          .putInt(Integer.MAX_VALUE - 8)
+          .array(), StandardOpenOption.APPEND);
+
+      try (final FileEntityStatementStore store = new FileEntityStatementStore(file)) {
+        assertEquals(fileSize, Files.size(file));
+        assertEquals(1, store.size());
+        assertNotNull(store.get(TestFederation.OP1, TestFederation.OP1));
+      }
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.security;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.testdata.TestCredentials;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+import se.oidc.oidfed.base.utils.OidcUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the signature verification cache
+ */
+class SignatureVerificationCacheTest {
+
+  @Test
+  void testCachedVerification() throws Exception {
+    final SignatureVerificationCache cache = new SignatureVerificationCache(100);
+    final EntityStatement entityStatement =
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build());
+    final SignedJWT signedJWT = entityStatement.getSignedJWT();
+    final JWKSet jwkSet = TestCredentials.getJwkSet(TestCredentials.ta1.getCertificate());
+    final String jwsDigest = SignatureVerificationCache.getJwsDigest(signedJWT);
+    final String thumbprint = jwkSet.getKeys().get(0).computeThumbprint().toString();
+
+    assertFalse(cache.isVerified(jwsDigest, thumbprint));
+    assertTrue(OidcUtils.verifySignedJWT(signedJWT, jwkSet, cache));
+    assertTrue(cache.isVerified(jwsDigest, thumbprint));
+    assertTrue(OidcUtils.verifySignedJWT(SignedJWT.parse(signedJWT.serialize()), jwkSet, cache));
+
+    // Failed verifications are not cached
+    assertFalse(OidcUtils.verifySignedJWT(signedJWT,
+        TestCredentials.getJwkSet(TestCredentials.p521Credential.getCertificate()), cache));
+    assertEquals(1, cache.size());
+
+    // A different statement signed by the same key is not covered by the cached verification
+    final SignedJWT otherJWT = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build())
+        .getSignedJWT();
+    assertFalse(cache.isVerified(SignatureVerificationCache.getJwsDigest(otherJWT), thumbprint));
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.security;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.testdata.TestCredentials;
+import se.oidc.oidfed.base.utils.JWKUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the Trust Anchor registry
+ */
+class TrustAnchorRegistryTest {
+
+  @Test
+  void testRegistry() throws Exception {
+    final JWKSet ta1Keys = JWKUtils.jwksBuilder()
+        .addKey(TestCredentials.ta1.getCertificate(), "ta1_key")
+        .addKey(TestCredentials.p521Credential.getCertificate(), "ta1_next")
+        .build();
+    final TrustAnchorRegistry registry = new TrustAnchorRegistry(Map.of("https://example.com/ta1", ta1Keys));
+
+    final TrustAnchorRegistry.TrustAnchor trustAnchor = registry.getTrustAnchor("https://example.com/ta1");
+    assertEquals("https://example.com/ta1", trustAnchor.getEntityId());
+    assertSame(ta1Keys, trustAnchor.getKeys());
+    assertEquals(1, trustAnchor.getKeys("ta1_next").getKeys().size());
+    assertEquals("ta1_next", trustAnchor.getKeys("ta1_next").getKeys().get(0).getKeyID());
+    assertTrue(trustAnchor.getKeys("unknown").isEmpty());
+    assertTrue(trustAnchor.getKeys(null).isEmpty());
+    assertNull(registry.getTrustAnchor("https://example.com/ta2"));
+    assertNull(registry.getTrustAnchor(null));
+    final long version = registry.getVersion();
+
+    // Replacing keys replaces the Trust Anchor instance and leaves earlier instances unchanged
+    registry.setTrustAnchor("https://example.com/ta1",
+        TestCredentials.getJwkSet(TestCredentials.p256Credential.getCertificate()));
+    registry.setTrustAnchor("https://example.com/ta2",
+        TestCredentials.getJwkSet(TestCredentials.p256Credential.getCertificate()));
+    assertNotSame(trustAnchor, registry.getTrustAnchor("https://example.com/ta1"));
+    assertEquals(2, trustAnchor.getKeys().getKeys().size());
+    assertEquals(2, registry.getTrustAnchorIds().size());
+    assertEquals(version + 2, registry.getVersion());
+
+    // Only removal of a registered Trust Anchor changes the version
+    assertTrue(registry.removeTrustAnchor("https://example.com/ta1"));
+    assertFalse(registry.removeTrustAnchor("https://example.com/ta1"));
+    assertEquals(1, registry.getTrustAnchorIds().size());
+    assertEquals(version + 3, registry.getVersion());
+
+    registry.setTrustAnchors(Map.of());
+    assertTrue(registry.getTrustAnchorIds().isEmpty());
+    assertEquals(version + 4, registry.getVersion());
+  }
+
+}
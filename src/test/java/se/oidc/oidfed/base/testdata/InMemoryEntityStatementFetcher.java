@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.testdata;
+
+import lombok.Setter;
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetchException;
+import se.oidc.oidfed.base.process.chain.EntityStatementFetcher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Entity Statement fetcher backed by an in-memory federation, counting the number of fetches of each statement
+ */
+public class InMemoryEntityStatementFetcher implements EntityStatementFetcher {
+
+  private final Map<String, EntityStatement> entityConfigurations = new ConcurrentHashMap<>();
+  private final Map<String, String> fetchEndpointIssuers = new ConcurrentHashMap<>();
+  private final Map<String, String> listEndpointIssuers = new ConcurrentHashMap<>();
+  private final Map<String, EntityStatement> subordinateStatements = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> fetchCounts = new ConcurrentHashMap<>();
+  private final AtomicInteger totalFetchCount = new AtomicInteger();
+
+  /** Simulated network latency of each fetch */
+  @Setter
+  private long latencyMillis = 0;
+
+  /**
+   * Add an Entity Configuration or a Subordinate Statement to the federation.
+   *
+   * @param statement the statement to add
+   * @return this fetcher
+   */
+  public InMemoryEntityStatementFetcher add(final EntityStatement statement) {
+    if (statement.getIssuer().equals(statement.getSubject())) {
+      this.entityConfigurations.put(statement.getSubject(), statement);
+      getFederationEndpoint(statement, PolicyParameterFormats.federation_fetch_endpoint)
+          .ifPresent(fetchEndpoint -> this.fetchEndpointIssuers.put(fetchEndpoint, statement.getSubject()));
+      getFederationEndpoint(statement, PolicyParameterFormats.federation_list_endpoint)
+          .ifPresent(listEndpoint -> this.listEndpointIssuers.put(listEndpoint, statement.getSubject()));
+    }
+    else {
+      this.subordinateStatements.put(statement.getIssuer() + "|" + statement.getSubject(), statement);
+    }
+    return this;
+  }
+
+  /**
+   * Remove an Entity Configuration or a Subordinate Statement from the federation.
+   *
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   */
+  public void remove(final String issuer, final String subject) {
+    if (issuer.equals(subject)) {
+      this.entityConfigurations.remove(subject);
+    }
+    else {
+      this.subordinateStatements.remove(issuer + "|" + subject);
+    }
+  }
+
+  @Override
+  public EntityStatement fetchEntityConfiguration(final String entityIdentifier)
+      throws EntityStatementFetchException {
+    this.fetched(entityIdentifier + "|" + entityIdentifier);
+    return Optional.ofNullable(this.entityConfigurations.get(entityIdentifier))
+        .orElseThrow(() -> new EntityStatementFetchException("No such entity: " + entityIdentifier));
+  }
+
+  @Override
+  public EntityStatement fetchSubordinateStatement(final String fetchEndpoint, final String subject)
+      throws EntityStatementFetchException {
+    final String issuer = this.fetchEndpointIssuers.get(fetchEndpoint);
+    this.fetched(issuer + "|" + subject);
+    return Optional.ofNullable(issuer)
+        .map(iss -> this.subordinateStatements.get(iss + "|" + subject))
+        .orElseThrow(() -> new EntityStatementFetchException("No statement about " + subject + " at " + fetchEndpoint));
+  }
+
+  @Override
+  public List<String> fetchSubordinateList(final String listEndpoint) throws EntityStatementFetchException {
+    final String issuer = this.listEndpointIssuers.get(listEndpoint);
+    this.fetched("list|" + issuer);
+    if (issuer == null) {
+      throw new EntityStatementFetchException("No list endpoint " + listEndpoint);
+    }
+    return this.subordinateStatements.keySet().stream()
+        .filter(key -> key.startsWith(issuer + "|"))
+        .map(key -> key.substring(issuer.length() + 1))
+        .sorted()
+        .toList();
+  }
+
+  /**
+   * Get the number of times a statement has been fetched.
+   *
+   * @param issuer the issuer of the statement
+   * @param subject the subject of the statement
+   * @return number of fetches
+   */
+  public int getFetchCount(final String issuer, final String subject) {
+    return Optional.ofNullable(this.fetchCounts.get(issuer + "|" + subject)).map(AtomicInteger::get).orElse(0);
+  }
+
+  /**
+   * Get the number of times the subordinates of an entity have been listed.
+   *
+   * @param issuer the entity whose subordinates were listed
+   * @return number of list requests
+   */
+  public int getListCount(final String issuer) {
+    return Optional.ofNullable(this.fetchCounts.get("list|" + issuer)).map(AtomicInteger::get).orElse(0);
+  }
+
+  /**
+   * Get the total number of fetches.
+   *
+   * @return number of fetches
+   */
+  public int getFetchCount() {
+    return this.totalFetchCount.get();
+  }
+
+  private static Optional<String> getFederationEndpoint(final EntityStatement statement,
+      final PolicyParameterFormats endpoint) {
+    return Optional.ofNullable(statement.getMetadata())
+        .map(metadata -> metadata.getMetadataClaimsObject(EntityMetadataInfoClaim.FEDERATION_ENTITY))
+        .map(federationEntity -> (String) federationEntity.get(endpoint.getParameterName()));
+  }
+
+  private void fetched(final String key) throws EntityStatementFetchException {
+    this.fetchCounts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+    this.totalFetchCount.incrementAndGet();
+    if (this.latencyMillis > 0) {
+      try {
+        Thread.sleep(this.latencyMillis);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new EntityStatementFetchException("Interrupted", e);
+      }
+    }
+  }
+
+}
@@ -43,12 +43,14 @@ import se.oidc.oidfed.base.utils.JWKUtils;
 import se.swedenconnect.security.credential.PkiCredential;
 
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class TestEntityStatements {
@@ -245,7 +247,8 @@ public class TestEntityStatements {
           .subject("https://example.com/" + esData.getSubjName())
           .issuer("https://example.com/" + esData.getIssuerName())
           .issueTime(new Date())
-          .expriationTime(Date.from(Instant.now().plusSeconds(600)))
+          .expriationTime(Date.from(Instant.now().plus(Optional.ofNullable(esData.getLifetime())
+              .orElse(Duration.ofSeconds(600)))))
           .definedParams(esParamsBuilder.build())
           .build(esData.getSigCredential(), null);
 
@@ -276,6 +279,7 @@ public class TestEntityStatements {
     private Map<String, List<String>> trustMarkIssuersMap;
     private boolean noSubjectDataStorage;
     private Map<String, TrustMarkOwner> trustMarkOwnerMap;
+    private Duration lifetime;
   }
 
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.testdata;
+
+import se.oidc.oidfed.base.configuration.PolicyParameterFormats;
+import se.oidc.oidfed.base.data.federation.EntityMetadataInfoClaim;
+import se.oidc.oidfed.base.data.federation.EntityStatement;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory test federation for path building
+ *
+ * <p>
+ * The federation has the Trust Anchor ta1, the intermediate entities ie1 and ie2, and the leaf entity op1. The
+ * authority hints of op1 lists ie1 before ie2, but ie1 has not issued a statement about op1. The only path from op1 to
+ * ta1 is op1 - ie2 - ie1 - ta1.
+ * </p>
+ */
+public class TestFederation {
+
+  public static final String TA1 = "https://example.com/ta1";
+  public static final String IE1 = "https://example.com/ie1";
+  public static final String IE2 = "https://example.com/ie2";
+  public static final String OP1 = "https://example.com/op1";
+
+  public static InMemoryEntityStatementFetcher create() throws Exception {
+    final InMemoryEntityStatementFetcher fetcher = new InMemoryEntityStatementFetcher();
+    for (final EntityStatement statement : statements(null)) {
+      fetcher.add(statement);
+    }
+    return fetcher;
+  }
+
+  /**
+   * Issue all statements of the federation.
+   *
+   * @param lifetime the lifetime of the statements, or null for the default lifetime
+   * @return the statements of the federation
+   */
+  public static List<EntityStatement> statements(final Duration lifetime) throws Exception {
+    return List.of(
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf()
+            .metadata(federationEntity("ta1"))
+            .lifetime(lifetime)
+            .build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.EsData.builder()
+            .subjName("ie1")
+            .issuerName("ie1")
+            .subjCredential(TestCredentials.ie1)
+            .sigCredential(TestCredentials.ie1Sig)
+            .authorityHints(List.of("ta1"))
+            .metadata(federationEntity("ie1"))
+            .lifetime(lifetime)
+            .build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_ie2_configuration()
+            .metadata(federationEntity("ie2"))
+            .lifetime(lifetime)
+            .build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.op1_conf().lifetime(lifetime).build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_ie1_statement().lifetime(lifetime).build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie1_ie2_statement().lifetime(lifetime).build()),
+        TestEntityStatements.getEntityStatement(TestEntityStatements.ie2_op1().lifetime(lifetime).build()));
+  }
+
+  public static EntityMetadataInfoClaim federationEntity(final String name) {
+    return EntityMetadataInfoClaim.builder()
+        .federationEntityMetadataObject(Map.of(
+            PolicyParameterFormats.federation_fetch_endpoint.getParameterName(),
+            "https://example.com/" + name + "/fetch",
+            PolicyParameterFormats.federation_list_endpoint.getParameterName(),
+            "https://example.com/" + name + "/list"))
+        .build();
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.utils;
+
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.testdata.TestClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the bounded cache
+ */
+class BoundedCacheTest {
+
+  @Test
+  void testExpiration() {
+    final TestClock clock = new TestClock();
+    final BoundedCache<String, String> cache = new BoundedCache<>(10, clock);
+
+    cache.put("expiring", "value1", clock.instant().plusSeconds(60));
+    cache.put("permanent", "value2", null);
+    cache.put("expired", "value3", clock.instant().minusSeconds(1));
+    assertEquals("value1", cache.get("expiring"));
+    assertEquals("value2", cache.get("permanent"));
+    assertNull(cache.get("expired"));
+
+    clock.advance(Duration.ofSeconds(60));
+    assertNull(cache.get("expiring"));
+    assertEquals("value2", cache.get("permanent"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void testEviction() {
+    final BoundedCache<Integer, String> cache = new BoundedCache<>(10);
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, "value" + i, null);
+    }
+    // Access the first entry to make it the most recently used
+    assertNotNull(cache.get(0));
+    cache.put(10, "value10", null);
+
+    assertTrue(cache.size() <= 10);
+    assertEquals("value0", cache.get(0));
+    assertEquals("value10", cache.get(10));
+    assertNull(cache.get(1));
+  }
+
+  @Test
+  void testEvictionWithConcurrentReads() throws Exception {
+    final BoundedCache<Integer, String> cache = new BoundedCache<>(1000);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final Thread reader = new Thread(() -> {
+        final Random random = new Random();
+        while (running.get()) {
+          cache.get(random.nextInt(2000));
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+    try {
+      // Eviction sorts entries by access time while the readers update them
+      for (int i = 0; i < 20000; i++) {
+        cache.put(i % 2000, "value" + i, null);
+      }
+    }
+    finally {
+      running.set(false);
+      for (final Thread reader : readers) {
+        reader.join();
+      }
+    }
+    assertTrue(cache.size() <= 1000);
+  }
+
+}
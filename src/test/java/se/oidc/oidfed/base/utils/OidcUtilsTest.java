@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 OIDC Sweden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.oidc.oidfed.base.utils;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.Test;
+import se.oidc.oidfed.base.testdata.TestCredentials;
+import se.oidc.oidfed.base.testdata.TestEntityStatements;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for signature verification support in OidcUtils
+ */
+class OidcUtilsTest {
+
+  @Test
+  void testVerifierPool() throws Exception {
+    final JWK ecKey = JWKUtils.getJwkWithKid(TestCredentials.p256Credential.getCertificate(), "p256", false);
+    final JWK rsaKey = JWKUtils.getJwkWithKid(TestCredentials.rsa3072Credential.getCertificate(), "rsa", false);
+
+    // The same key material, also with a different kid, gives the same verifier instance
+    assertSame(OidcUtils.getVerifier(ecKey), OidcUtils.getVerifier(JWK.parse(ecKey.toJSONString())));
+    assertSame(OidcUtils.getVerifier(ecKey), OidcUtils.getVerifier(
+        JWKUtils.getJwkWithKid(TestCredentials.p256Credential.getCertificate(), "other-kid", false)));
+    assertSame(OidcUtils.getVerifier(rsaKey), OidcUtils.getVerifier(rsaKey));
+    assertNotSame(OidcUtils.getVerifier(ecKey), OidcUtils.getVerifier(rsaKey));
+  }
+
+  @Test
+  void testKeySelection() throws Exception {
+    // Signed with the ES512 ta1 key with kid "test_ta1"
+    final SignedJWT signedJWT = TestEntityStatements.getEntityStatement(TestEntityStatements.ta1_conf().build())
+        .getSignedJWT();
+    final JWK ta1Key = JWKUtils.getJwkWithKid(TestCredentials.ta1.getCertificate(), "test_ta1", false);
+    final JWK p521Key = JWKUtils.getJwkWithKid(TestCredentials.p521Credential.getCertificate(), "p521", false);
+    final JWK p256Key = JWKUtils.getJwkWithKid(TestCredentials.p256Credential.getCertificate(), "p256", false);
+    final JWK rsaKey = JWKUtils.getJwkWithKid(TestCredentials.rsa3072Credential.getCertificate(), "rsa", false);
+    final JWKSet jwkSet = new JWKSet(List.of(p256Key, rsaKey, p521Key, ta1Key));
+
+    // Keys with the wrong key type or curve are never selected and the key with matching kid is first
+    assertEquals(List.of(ta1Key, p521Key), OidcUtils.selectVerificationKeys(signedJWT.getHeader(), jwkSet, false));
+    assertEquals(List.of(ta1Key), OidcUtils.selectVerificationKeys(signedJWT.getHeader(), jwkSet, true));
+    assertTrue(OidcUtils.verifySignedJWT(signedJWT, jwkSet));
+    assertTrue(OidcUtils.verifySignedJWT(signedJWT, jwkSet, true, null));
+
+    // The right key with another kid is found by fallback, but not in strict mode
+    final JWKSet otherKidJwkSet = new JWKSet(List.of(p256Key,
+        JWKUtils.getJwkWithKid(TestCredentials.ta1.getCertificate(), "other_kid", false)));
+    assertTrue(OidcUtils.verifySignedJWT(signedJWT, otherKidJwkSet));
+    assertFalse(OidcUtils.verifySignedJWT(signedJWT, otherKidJwkSet, true, null));
+  }
+
+}